@@ -0,0 +1,86 @@
+package org.kohsuke.file_leak_detector.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * Ways to run the forked benchmark JVMs, with or without the agent attached.
+ */
+enum AgentMode {
+    /**
+     * Without the agent, as the baseline.
+     */
+    NONE,
+    /**
+     * With the default options, which track every resource through weak references.
+     */
+    DEFAULT,
+    /**
+     * Keeping the tracked objects strongly reachable, as {@code strong} does.
+     */
+    STRONG,
+    /**
+     * Tracing every open/close to a file.
+     */
+    TRACE,
+    /**
+     * With a few excludes that don't match, which still need the stack trace of every open.
+     */
+    EXCLUDES,
+    /**
+     * Tracking the descriptors of files rather than the objects that open them.
+     */
+    FD,
+    /**
+     * Tracking only sockets, so that the benchmarks of the other resources run on uninstrumented classes.
+     */
+    SOCKETS,
+    /**
+     * Tracking only files, so that sockets and other channels are closed through the hook without being tracked.
+     */
+    FILES;
+
+    /**
+     * Returns the JVM arguments for this mode.
+     *
+     * @param agentJar
+     *      The agent to attach.
+     */
+    String[] getJvmArgs(File agentJar) throws IOException {
+        switch (this) {
+            case NONE:
+                return new String[0];
+            case DEFAULT:
+                return new String[] {"-javaagent:" + agentJar};
+            case STRONG:
+                return new String[] {"-javaagent:" + agentJar + "=strong"};
+            case TRACE:
+                File trace = File.createTempFile("file-leak-detector-trace", ".txt");
+                trace.deleteOnExit();
+                return new String[] {"-javaagent:" + agentJar + "=trace=" + trace};
+            case EXCLUDES:
+                File excludes = File.createTempFile("file-leak-detector-excludes", ".txt");
+                excludes.deleteOnExit();
+                Files.write(
+                        excludes.toPath(),
+                        Arrays.asList(
+                                "# patterns that don't match any benchmark",
+                                "org.example.Foo.open",
+                                "org.example.Bar.connect",
+                                "org.example.Baz.list"),
+                        StandardCharsets.UTF_8);
+                return new String[] {"-javaagent:" + agentJar + "=excludes=" + excludes};
+            case FD:
+                return new String[] {"-javaagent:" + agentJar + "=mode=fd"};
+            case SOCKETS:
+                return new String[] {"-javaagent:" + agentJar + "=types=sockets"};
+            case FILES:
+                return new String[] {"-javaagent:" + agentJar + "=types=files"};
+            default:
+                throw new AssertionError(this);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package org.kohsuke.file_leak_detector.benchmark;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.AsynchronousServerSocketChannel;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of opening and closing NIO.2 asynchronous channels.
+ * Compare the agent modes against {@link AgentMode#NONE} to get the cost of the hooks.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AsynchronousChannelBenchmark {
+    private Path dir;
+    private Path file;
+    private AsynchronousChannelGroup group;
+    private AsynchronousServerSocketChannel server;
+    private SocketAddress address;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("file-leak-detector-benchmark");
+        file = Files.write(dir.resolve("file.txt"), new byte[] {1, 2, 3});
+
+        group = AsynchronousChannelGroup.withFixedThreadPool(2, Executors.defaultThreadFactory());
+        server = AsynchronousServerSocketChannel.open(group)
+                .bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+        address = server.getLocalAddress();
+        server.accept(null, new CompletionHandler<AsynchronousSocketChannel, Void>() {
+            @Override
+            public void completed(AsynchronousSocketChannel accepted, Void attachment) {
+                server.accept(null, this);
+                try {
+                    accepted.close();
+                } catch (IOException e) {
+                    // already reset by the client
+                }
+            }
+
+            @Override
+            public void failed(Throwable exc, Void attachment) {
+                // closed
+            }
+        });
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        server.close();
+        group.shutdownNow();
+        group.awaitTermination(10, TimeUnit.SECONDS);
+        Files.delete(file);
+        Files.delete(dir);
+    }
+
+    @Benchmark
+    public long fileChannelOpen() throws IOException {
+        try (AsynchronousFileChannel ch = AsynchronousFileChannel.open(file, StandardOpenOption.READ)) {
+            return ch.size();
+        }
+    }
+
+    /**
+     * Connects a client channel, which makes the server accept one as well,
+     * so this covers the hooks on both sides of the connection.
+     */
+    @Benchmark
+    public int connect() throws IOException, InterruptedException, ExecutionException {
+        try (AsynchronousSocketChannel ch = AsynchronousSocketChannel.open(group)) {
+            ch.connect(address).get();
+            // wait for the server to close first, so that the connection is left in TIME_WAIT on its side;
+            // SO_LINGER isn't supported to reset it, and TIME_WAIT here would exhaust the ephemeral ports
+            return ch.read(ByteBuffer.allocate(1)).get();
+        }
+    }
+
+    /**
+     * Opens a server channel without binding it, the cost of the hooks on the listening side alone.
+     */
+    @Benchmark
+    public boolean serverSocketOpen() throws IOException {
+        try (AsynchronousServerSocketChannel ch = AsynchronousServerSocketChannel.open(group)) {
+            return ch.isOpen();
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package org.kohsuke.file_leak_detector.benchmark;
+
+import java.lang.instrument.Instrumentation;
+
+/**
+ * Agent of the benchmark jar itself, giving {@link TransformerBenchmark} the {@link Instrumentation}
+ * without installing the file leak detector.
+ */
+public class BenchmarkAgent {
+    static volatile Instrumentation instrumentation;
+
+    public static void premain(String agentArguments, Instrumentation instrumentation) {
+        BenchmarkAgent.instrumentation = instrumentation;
+    }
+
+    static Instrumentation getInstrumentation() {
+        Instrumentation i = instrumentation;
+        if (i == null) {
+            throw new IllegalStateException("Run with -javaagent:benchmarks.jar");
+        }
+        return i;
+    }
+}
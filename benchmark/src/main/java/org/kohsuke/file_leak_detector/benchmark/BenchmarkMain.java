@@ -0,0 +1,125 @@
+package org.kohsuke.file_leak_detector.benchmark;
+
+import java.io.File;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks, reporting time and allocated bytes per operation.
+ *
+ * <pre>
+ * java -jar benchmarks.jar [MODE...] [-- JMH options]
+ * </pre>
+ *
+ * Benchmarks that go through the instrumented JDK code are run once for each {@link AgentMode}:
+ * {@code none}, {@code default}, {@code strong}, {@code trace}, {@code excludes}, {@code fd}, {@code sockets}
+ * and {@code files}.
+ * Benchmarks that call {@link org.kohsuke.file_leak_detector.Listener} directly are run once,
+ * without the agent, as mode {@code direct}. {@link TransformerBenchmark} is run as mode {@code transform},
+ * with the benchmark jar itself as the agent. All of them are run by default.
+ * Results of each mode are also written to {@code jmh-MODE.json}.
+ * The agent is taken from {@code agent/file-leak-detector.jar} next to the benchmark jar,
+ * or from the {@code agent} system property.
+ */
+public class BenchmarkMain {
+    /**
+     * Benchmarks run once per {@link AgentMode}.
+     */
+    private static final List<Class<?>> INSTRUMENTED =
+            List.of(OpenCloseBenchmark.class, AsynchronousChannelBenchmark.class, CloseBenchmark.class);
+
+    /**
+     * Benchmarks run once, without the agent.
+     */
+    private static final List<Class<?>> DIRECT = List.of(ListenerContentionBenchmark.class);
+
+    public static void main(String[] args) throws Exception {
+        List<AgentMode> modes = new ArrayList<>();
+        boolean direct = false;
+        boolean transform = false;
+        String[] jmhArgs = new String[0];
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--")) {
+                jmhArgs = Arrays.copyOfRange(args, i + 1, args.length);
+                break;
+            }
+            if (args[i].equals("direct")) {
+                direct = true;
+            } else if (args[i].equals("transform")) {
+                transform = true;
+            } else {
+                modes.add(AgentMode.valueOf(args[i].toUpperCase(Locale.ROOT)));
+            }
+        }
+        if (modes.isEmpty() && !direct && !transform) {
+            modes.addAll(Arrays.asList(AgentMode.values()));
+            direct = true;
+            transform = true;
+        }
+
+        CommandLineOptions commandLine = new CommandLineOptions(jmhArgs);
+        if (!modes.isEmpty()) {
+            File agentJar = getAgentJar();
+            for (AgentMode mode : modes) {
+                run(options(
+                        mode.name().toLowerCase(Locale.ROOT), INSTRUMENTED, mode.getJvmArgs(agentJar), commandLine));
+            }
+        }
+        if (direct) {
+            run(options("direct", DIRECT, new String[0], commandLine));
+        }
+        if (transform) {
+            run(options(
+                            "transform",
+                            List.of(TransformerBenchmark.class),
+                            new String[] {"-javaagent:" + getBenchmarksJar()},
+                            commandLine)
+                    .param("className", TransformerBenchmark.getClassNames().toArray(new String[0])));
+        }
+    }
+
+    private static ChainedOptionsBuilder options(
+            String name, List<Class<?>> benchmarks, String[] jvmArgs, CommandLineOptions commandLine) {
+        System.out.println("# Agent mode: " + name);
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .parent(commandLine)
+                .jvmArgsAppend(jvmArgs)
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result("jmh-" + name + ".json");
+        for (Class<?> c : benchmarks) {
+            options.include("\\." + c.getSimpleName() + "\\.");
+        }
+        return options;
+    }
+
+    private static void run(ChainedOptionsBuilder options) throws RunnerException {
+        new Runner(options.build()).run();
+    }
+
+    private static File getAgentJar() throws URISyntaxException {
+        String agent = System.getProperty("agent");
+        if (agent != null) {
+            return new File(agent).getAbsoluteFile();
+        }
+        File jar = new File(getBenchmarksJar().getParentFile(), "agent/file-leak-detector.jar");
+        if (!jar.exists()) {
+            throw new IllegalStateException("Agent not found at " + jar + ", specify it with -Dagent=...");
+        }
+        return jar;
+    }
+
+    private static File getBenchmarksJar() throws URISyntaxException {
+        return new File(BenchmarkMain.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+    }
+}
@@ -0,0 +1,82 @@
+package org.kohsuke.file_leak_detector.benchmark;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of closing channels that the agent doesn't track, which only pay for the hook on
+ * {@code AbstractInterruptibleChannel.close}. Compare the agent modes against {@link AgentMode#NONE}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CloseBenchmark {
+    private Path dir;
+    private Path file;
+    private FileChannel closed;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("file-leak-detector-benchmark");
+        file = Files.write(dir.resolve("file.txt"), new byte[] {1, 2, 3});
+        closed = FileChannel.open(file, StandardOpenOption.READ);
+        closed.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.delete(file);
+        Files.delete(dir);
+    }
+
+    /**
+     * Closes a channel again, which the JDK does next to nothing for, so this is the cost of the hook alone.
+     */
+    @Benchmark
+    public boolean closeAgain() throws IOException {
+        closed.close();
+        return closed.isOpen();
+    }
+
+    /**
+     * Same from many threads, which shouldn't contend on the agent for objects it doesn't track.
+     */
+    @Benchmark
+    @Threads(16)
+    public boolean closeAgain_t16() throws IOException {
+        closed.close();
+        return closed.isOpen();
+    }
+
+    /**
+     * Opens and closes a socket channel without connecting it, as a server does for every connection.
+     * With {@link AgentMode#FILES}, the channel isn't tracked, but is still closed through the hook.
+     */
+    @Benchmark
+    public boolean socketChannel() throws IOException {
+        try (SocketChannel ch = SocketChannel.open()) {
+            return ch.isOpen();
+        }
+    }
+}
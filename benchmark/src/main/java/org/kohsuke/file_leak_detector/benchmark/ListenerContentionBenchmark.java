@@ -0,0 +1,173 @@
+package org.kohsuke.file_leak_detector.benchmark;
+
+import java.net.Socket;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.kohsuke.file_leak_detector.Listener;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Scalability of the {@link Listener} table under concurrent opens and closes.
+ *
+ * <p>
+ * Calls {@link Listener} directly, without the agent, so that only the cost of recording
+ * and of the locking around the table is measured. The table is filled with {@link #tableSize}
+ * descriptors that stay open, and each thread then either opens and closes short-lived files,
+ * or does the same with one in 16 operations opening a socket that stays open for the next
+ * {@link ThreadState#SOCKETS} socket opens of that thread.
+ *
+ * <p>
+ * Run with the GC profiler to see the allocation rate and the GC time.
+ * Use this as a regression gate for any change to how the table is stored and locked.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class ListenerContentionBenchmark {
+    @Param({"100", "10000", "1000000"})
+    public int tableSize;
+
+    /**
+     * {@code weak} is the default table, {@code strong} the one of the {@code strong} option.
+     */
+    @Param({"weak", "strong"})
+    public String table;
+
+    private final List<Object> longLived = new ArrayList<>();
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        static final int SOCKETS = 64;
+
+        final Path path = Paths.get("benchmark", Thread.currentThread().getName() + ".txt");
+        final Socket[] sockets = new Socket[SOCKETS];
+        final boolean[] open = new boolean[SOCKETS];
+        int ops;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            // never connected, so no descriptor is allocated
+            for (int i = 0; i < SOCKETS; i++) {
+                sockets[i] = new Socket();
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            for (int i = 0; i < SOCKETS; i++) {
+                if (open[i]) {
+                    Listener.close(sockets[i]);
+                    open[i] = false;
+                }
+            }
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        if (table.equals("strong")) {
+            Listener.makeStrong();
+        }
+        for (int i = 0; i < tableSize; i++) {
+            Object o = new Object();
+            Listener.open(o, Paths.get("benchmark", "long-lived-" + i + ".txt"));
+            longLived.add(o);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (Object o : longLived) {
+            Listener.close(o);
+        }
+        longLived.clear();
+    }
+
+    private static void shortLivedFile(ThreadState t) {
+        Object o = new Object();
+        Listener.open(o, t.path);
+        Listener.close(o);
+    }
+
+    private static void mixed(ThreadState t) {
+        int op = t.ops++;
+        if ((op & 15) != 0) {
+            shortLivedFile(t);
+            return;
+        }
+        int slot = (op >>> 4) % ThreadState.SOCKETS;
+        Socket s = t.sockets[slot];
+        if (t.open[slot]) {
+            Listener.close(s);
+        }
+        Listener.openSocket(s);
+        t.open[slot] = true;
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void files_t01(ThreadState t) {
+        shortLivedFile(t);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void files_t04(ThreadState t) {
+        shortLivedFile(t);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void files_t16(ThreadState t) {
+        shortLivedFile(t);
+    }
+
+    @Benchmark
+    @Threads(64)
+    public void files_t64(ThreadState t) {
+        shortLivedFile(t);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void mixed_t01(ThreadState t) {
+        mixed(t);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void mixed_t04(ThreadState t) {
+        mixed(t);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void mixed_t16(ThreadState t) {
+        mixed(t);
+    }
+
+    @Benchmark
+    @Threads(64)
+    public void mixed_t64(ThreadState t) {
+        mixed(t);
+    }
+}
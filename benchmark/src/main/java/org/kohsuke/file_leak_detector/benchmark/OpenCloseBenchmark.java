@@ -0,0 +1,129 @@
+package org.kohsuke.file_leak_detector.benchmark;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.FileChannel;
+import java.nio.channels.Pipe;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.Selector;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of opening and closing each kind of descriptor the agent intercepts.
+ * Compare the agent modes against {@link AgentMode#NONE} to get the overhead per operation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OpenCloseBenchmark {
+    private Path dir;
+    private Path file;
+    private ServerSocket server;
+    private Thread acceptor;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("file-leak-detector-benchmark");
+        file = Files.write(dir.resolve("file.txt"), new byte[] {1, 2, 3});
+
+        server = new ServerSocket();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+        acceptor = new Thread(
+                () -> {
+                    while (!server.isClosed()) {
+                        try {
+                            server.accept().close();
+                        } catch (IOException e) {
+                            // closed
+                        }
+                    }
+                },
+                "acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        server.close();
+        acceptor.join();
+        Files.delete(file);
+        Files.delete(dir);
+    }
+
+    @Benchmark
+    public int fileInputStream() throws IOException {
+        try (FileInputStream in = new FileInputStream(file.toFile())) {
+            return in.read();
+        }
+    }
+
+    @Benchmark
+    public long newByteChannel() throws IOException {
+        try (SeekableByteChannel ch = Files.newByteChannel(file)) {
+            return ch.size();
+        }
+    }
+
+    @Benchmark
+    public long fileChannelOpen() throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            return ch.size();
+        }
+    }
+
+    @Benchmark
+    public Path newDirectoryStream() throws IOException {
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+            return ds.iterator().next();
+        }
+    }
+
+    @Benchmark
+    public int socket() throws IOException {
+        try (Socket s = new Socket()) {
+            // reset instead of leaving the connection in TIME_WAIT, which would exhaust the ephemeral ports
+            s.setSoLinger(true, 0);
+            s.connect(server.getLocalSocketAddress());
+            return s.getLocalPort();
+        }
+    }
+
+    @Benchmark
+    public boolean selectorOpen() throws IOException {
+        try (Selector selector = Selector.open()) {
+            return selector.isOpen();
+        }
+    }
+
+    @Benchmark
+    public boolean pipeOpen() throws IOException {
+        Pipe pipe = Pipe.open();
+        pipe.source().close();
+        pipe.sink().close();
+        return pipe.sink().isOpen();
+    }
+}
@@ -0,0 +1,126 @@
+package org.kohsuke.file_leak_detector.benchmark;
+
+import java.io.InputStream;
+import java.lang.instrument.Instrumentation;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.kohsuke.file_leak_detector.AgentMain;
+import org.kohsuke.file_leak_detector.transform.ClassTransformSpec;
+import org.kohsuke.file_leak_detector.transform.TransformerImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of instrumenting the JDK classes, which is paid when the agent is attached.
+ *
+ * <p>
+ * {@link #transform} is the time {@link TransformerImpl} takes for one class.
+ * {@link #retransformClass} and {@link #retransformAll} are the pause of
+ * {@link Instrumentation#retransformClasses} with the transformer installed, for one class and for
+ * all the classes of {@link AgentMain#createSpec()} found in this JDK, which is what attaching costs.
+ *
+ * <p>
+ * {@link BenchmarkMain} runs {@link #transform} and {@link #retransformClass} for each class of
+ * {@link #getClassNames()}. Compare JDK versions by running it with {@code -jvm}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransformerBenchmark {
+    @State(Scope.Benchmark)
+    public static class ClassState {
+        /**
+         * Internal name of the class, as in {@link ClassTransformSpec#name}.
+         */
+        @Param({"java/io/FileInputStream"})
+        public String className;
+
+        TransformerImpl transformer;
+        byte[] classfileBuffer;
+        Class<?> clazz;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            transformer = new TransformerImpl(AgentMain.createSpec());
+            try (InputStream in = ClassLoader.getSystemResourceAsStream(className + ".class")) {
+                if (in == null) {
+                    throw new IllegalStateException(className + " is not in this JDK");
+                }
+                classfileBuffer = in.readAllBytes();
+            }
+            clazz = Class.forName(className.replace('/', '.'), false, ClassLoader.getSystemClassLoader());
+        }
+    }
+
+    /**
+     * Installs the transformer like the agent does, and takes it away again afterwards.
+     */
+    @State(Scope.Benchmark)
+    public static class Installed {
+        Instrumentation instrumentation;
+        TransformerImpl transformer;
+        Class<?>[] classes;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            instrumentation = BenchmarkAgent.getInstrumentation();
+            List<ClassTransformSpec> spec = AgentMain.createSpec();
+            List<Class<?>> found = new ArrayList<>();
+            for (String name : getClassNames()) {
+                found.add(Class.forName(name.replace('/', '.'), false, ClassLoader.getSystemClassLoader()));
+            }
+            classes = found.toArray(new Class[0]);
+            transformer = new TransformerImpl(spec);
+            instrumentation.addTransformer(transformer, true);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws Exception {
+            instrumentation.removeTransformer(transformer);
+            instrumentation.retransformClasses(classes);
+        }
+    }
+
+    /**
+     * Returns the internal names of the classes of {@link AgentMain#createSpec()} that are in this JDK.
+     */
+    public static List<String> getClassNames() {
+        List<String> names = new ArrayList<>();
+        for (ClassTransformSpec spec : AgentMain.createSpec()) {
+            if (ClassLoader.getSystemResource(spec.name + ".class") != null) {
+                names.add(spec.name);
+            }
+        }
+        return names;
+    }
+
+    @Benchmark
+    public byte[] transform(ClassState s) {
+        return s.transformer.transform(s.className, s.classfileBuffer);
+    }
+
+    @Benchmark
+    public void retransformClass(ClassState s, Installed i) throws Exception {
+        i.instrumentation.retransformClasses(s.clazz);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void retransformAll(Installed i) throws Exception {
+        i.instrumentation.retransformClasses(i.classes);
+    }
+}
@@ -8,8 +8,16 @@ import java.net.ServerSocket;
 import java.net.Socket;
 import java.nio.channels.SocketChannel;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
 import java.util.zip.ZipFile;
 
 /**
@@ -19,6 +27,12 @@ import java.util.zip.ZipFile;
  * Instantiate this class and put it into {@link #LIST} to start receiving callbacks.
  * Listeners must be concurrent and re-entrant safe.
  *
+ * <p>
+ * The callbacks are called by the thread that opens or closes the file, while the agent holds its lock,
+ * so a slow listener slows down every open and close in the JVM. A listener that doesn't need to run
+ * right then can be {@linkplain #isAsynchronous() asynchronous} instead, and receive the events in batches.
+ * A listener is only called for the {@linkplain #getEventKinds() kinds of events} it is interested in.
+ *
  * @author Michal Linhard (michal@linhard.sk)
  * @author Kohsuke Kawaguchi
  */
@@ -33,6 +47,15 @@ public abstract class ActivityListener {
      */
     public void open(Object obj, File file) {}
 
+    /**
+     * Called when a new path is opened.
+     *
+     * @param obj
+     *      The object that opened it, like a channel or a directory stream,
+     *      or with {@code mode=fd} the {@link java.io.FileDescriptor} of the file.
+     * @param file
+     *      Path being opened.
+     */
     public void open(Object obj, Path file) {}
 
     /**
@@ -58,8 +81,432 @@ public abstract class ActivityListener {
 
     public void fd_open(Object obj) {}
 
+    /**
+     * Called with the events of an {@linkplain #isAsynchronous() asynchronous} listener,
+     * on a thread of the agent and in the order they happened.
+     *
+     * <p>
+     * By default, this calls the callback of each event as if it were synchronous.
+     *
+     * @param events
+     *      Events since the previous call, which the listener may keep.
+     */
+    public void onEvents(List<Event> events) {
+        for (Event e : events) {
+            switch (e.kind) {
+                case FILE_OPEN:
+                    open(e.obj, e.file);
+                    break;
+                case PATH_OPEN:
+                    open(e.obj, e.path);
+                    break;
+                case SOCKET_OPEN:
+                    openSocket(e.obj);
+                    break;
+                case SELECTOR_OPEN:
+                case PIPE_OPEN:
+                case FD_OPEN:
+                    fd_open(e.obj);
+                    break;
+                case CLOSE:
+                    close(e.obj);
+                    break;
+                default:
+                    throw new AssertionError(e.kind);
+            }
+        }
+    }
+
+    /**
+     * Returns the kinds of events this listener is called for, all of them by default.
+     * Events of the other kinds cost nothing to the thread that opens or closes the file.
+     *
+     * <p>
+     * This is called once, when the listener is added to {@link #LIST}.
+     */
+    public Set<Event.Kind> getEventKinds() {
+        return EnumSet.allOf(Event.Kind.class);
+    }
+
+    /**
+     * Returns true to receive the events through {@link #onEvents(List)} on a thread of the agent,
+     * rather than through the other callbacks on the thread that opens or closes the file.
+     * Opening and closing files then only waits for an event to be queued, but the listener
+     * sees them later, and misses the events that don't fit in {@link #getQueueCapacity()}.
+     *
+     * <p>
+     * This is called once, when the listener receives its first event.
+     */
+    public boolean isAsynchronous() {
+        return false;
+    }
+
+    /**
+     * Number of events of an asynchronous listener that can wait to be delivered.
+     * When the listener falls that far behind, further events are dropped and counted in {@link #getDroppedEvents()}.
+     */
+    public int getQueueCapacity() {
+        return 65536;
+    }
+
+    /**
+     * Number of events that an asynchronous listener missed because its queue was full.
+     */
+    public final long getDroppedEvents() {
+        AsyncDispatcher d = dispatcher;
+        return d != null ? d.getDropped() : 0;
+    }
+
+    /**
+     * Queue and thread of an asynchronous listener, created with its first event.
+     * Null for a synchronous listener, which is then known not to be asynchronous.
+     */
+    private volatile AsyncDispatcher dispatcher;
+
+    private volatile boolean synchronous;
+
+    /**
+     * Returns the dispatcher of an asynchronous listener, or null if it is synchronous.
+     */
+    private AsyncDispatcher getDispatcher() {
+        AsyncDispatcher d = dispatcher;
+        if (d != null || synchronous) {
+            return d;
+        }
+        synchronized (this) {
+            if (dispatcher == null && !synchronous) {
+                if (isAsynchronous()) {
+                    dispatcher = new AsyncDispatcher(this, getQueueCapacity());
+                } else {
+                    synchronous = true;
+                }
+            }
+            return dispatcher;
+        }
+    }
+
+    /**
+     * Returns true if any listener is interested in the given kind of events.
+     */
+    /*package*/ static boolean hasListeners(Event.Kind kind) {
+        return BY_KIND[kind.ordinal()].length > 0;
+    }
+
+    /*package*/ static void fireOpen(Object obj, File file) {
+        for (ActivityListener al : BY_KIND[Event.Kind.FILE_OPEN.ordinal()]) {
+            AsyncDispatcher d = al.getDispatcher();
+            if (d == null) {
+                al.open(obj, file);
+            } else {
+                d.offer(new Event(Event.Kind.FILE_OPEN, obj, file, null));
+            }
+        }
+    }
+
+    /*package*/ static void fireOpen(Object obj, Path path) {
+        for (ActivityListener al : BY_KIND[Event.Kind.PATH_OPEN.ordinal()]) {
+            AsyncDispatcher d = al.getDispatcher();
+            if (d == null) {
+                al.open(obj, path);
+            } else {
+                d.offer(new Event(Event.Kind.PATH_OPEN, obj, null, path));
+            }
+        }
+    }
+
+    /*package*/ static void fireOpenSocket(Object obj) {
+        for (ActivityListener al : BY_KIND[Event.Kind.SOCKET_OPEN.ordinal()]) {
+            AsyncDispatcher d = al.getDispatcher();
+            if (d == null) {
+                al.openSocket(obj);
+            } else {
+                d.offer(new Event(Event.Kind.SOCKET_OPEN, obj, null, null));
+            }
+        }
+    }
+
+    /**
+     * @param kind
+     *      {@link Event.Kind#SELECTOR_OPEN}, {@link Event.Kind#PIPE_OPEN} or {@link Event.Kind#FD_OPEN}.
+     */
+    /*package*/ static void fireFdOpen(Event.Kind kind, Object obj) {
+        for (ActivityListener al : BY_KIND[kind.ordinal()]) {
+            AsyncDispatcher d = al.getDispatcher();
+            if (d == null) {
+                al.fd_open(obj);
+            } else {
+                d.offer(new Event(kind, obj, null, null));
+            }
+        }
+    }
+
+    /*package*/ static void fireClose(Object obj) {
+        for (ActivityListener al : BY_KIND[Event.Kind.CLOSE.ordinal()]) {
+            AsyncDispatcher d = al.getDispatcher();
+            if (d == null) {
+                al.close(obj);
+            } else {
+                d.offer(new Event(Event.Kind.CLOSE, obj, null, null));
+            }
+        }
+    }
+
+    /**
+     * One call of a callback, as delivered to an asynchronous listener.
+     */
+    public static final class Event {
+        public enum Kind {
+            /**
+             * {@link ActivityListener#open(Object, File)}
+             */
+            FILE_OPEN,
+            /**
+             * {@link ActivityListener#open(Object, Path)}
+             */
+            PATH_OPEN,
+            /**
+             * {@link ActivityListener#openSocket(Object)}
+             */
+            SOCKET_OPEN,
+            /**
+             * {@link ActivityListener#fd_open(Object)} of a {@link java.nio.channels.Selector}
+             */
+            SELECTOR_OPEN,
+            /**
+             * {@link ActivityListener#fd_open(Object)} of either end of a {@link java.nio.channels.Pipe}
+             */
+            PIPE_OPEN,
+            /**
+             * {@link ActivityListener#fd_open(Object)} of anything else, like a process, a watch service,
+             * or with {@code mode=fd} a descriptor whose file isn't known
+             */
+            FD_OPEN,
+            /**
+             * {@link ActivityListener#close(Object)}
+             */
+            CLOSE
+        }
+
+        public final Kind kind;
+        /**
+         * The object that was opened or closed.
+         */
+        public final Object obj;
+        /**
+         * The file of {@link Kind#FILE_OPEN}, null otherwise.
+         */
+        public final File file;
+        /**
+         * The path of {@link Kind#PATH_OPEN}, null otherwise.
+         */
+        public final Path path;
+
+        public final String threadName;
+        /**
+         * When it happened, in {@link System#currentTimeMillis()}.
+         */
+        public final long time;
+
+        Event(Kind kind, Object obj, File file, Path path) {
+            this.kind = kind;
+            this.obj = obj;
+            this.file = file;
+            this.path = path;
+            this.threadName = Thread.currentThread().getName();
+            this.time = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Kinds of events of the listener, or null until it is added to {@link #LIST}.
+     */
+    private Set<Event.Kind> kinds;
+
+    /**
+     * The listeners of {@link #LIST} that are interested in each kind of events, by its ordinal.
+     */
+    private static volatile ActivityListener[][] BY_KIND = byKind(Collections.emptyList());
+
+    private static ActivityListener[][] byKind(List<ActivityListener> listeners) {
+        ActivityListener[][] byKind = new ActivityListener[Event.Kind.values().length][];
+        for (Event.Kind kind : Event.Kind.values()) {
+            List<ActivityListener> interested = new ArrayList<>();
+            for (ActivityListener al : listeners) {
+                if (al.getKinds().contains(kind)) {
+                    interested.add(al);
+                }
+            }
+            byKind[kind.ordinal()] = interested.toArray(new ActivityListener[0]);
+        }
+        return byKind;
+    }
+
+    private synchronized Set<Event.Kind> getKinds() {
+        if (kinds == null) {
+            kinds = EnumSet.noneOf(Event.Kind.class);
+            kinds.addAll(getEventKinds());
+        }
+        return kinds;
+    }
+
+    /**
+     * {@link #LIST}, which updates the listeners of each kind of events whenever it is changed.
+     * Its sublists can't be changed, as they would bypass that.
+     */
+    private static final class ListenerList extends CopyOnWriteArrayList<ActivityListener> {
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Called after every change, while holding the lock, so that the last change wins.
+         */
+        private void changed() {
+            BY_KIND = byKind(this);
+        }
+
+        @Override
+        public synchronized ActivityListener set(int index, ActivityListener element) {
+            try {
+                return super.set(index, element);
+            } finally {
+                changed();
+            }
+        }
+
+        @Override
+        public synchronized boolean add(ActivityListener element) {
+            try {
+                return super.add(element);
+            } finally {
+                changed();
+            }
+        }
+
+        @Override
+        public synchronized void add(int index, ActivityListener element) {
+            try {
+                super.add(index, element);
+            } finally {
+                changed();
+            }
+        }
+
+        @Override
+        public synchronized ActivityListener remove(int index) {
+            try {
+                return super.remove(index);
+            } finally {
+                changed();
+            }
+        }
+
+        @Override
+        public synchronized boolean remove(Object o) {
+            try {
+                return super.remove(o);
+            } finally {
+                changed();
+            }
+        }
+
+        @Override
+        public synchronized boolean addIfAbsent(ActivityListener element) {
+            try {
+                return super.addIfAbsent(element);
+            } finally {
+                changed();
+            }
+        }
+
+        @Override
+        public synchronized boolean removeAll(Collection<?> c) {
+            try {
+                return super.removeAll(c);
+            } finally {
+                changed();
+            }
+        }
+
+        @Override
+        public synchronized boolean retainAll(Collection<?> c) {
+            try {
+                return super.retainAll(c);
+            } finally {
+                changed();
+            }
+        }
+
+        @Override
+        public synchronized int addAllAbsent(Collection<? extends ActivityListener> c) {
+            try {
+                return super.addAllAbsent(c);
+            } finally {
+                changed();
+            }
+        }
+
+        @Override
+        public synchronized void clear() {
+            try {
+                super.clear();
+            } finally {
+                changed();
+            }
+        }
+
+        @Override
+        public synchronized boolean addAll(Collection<? extends ActivityListener> c) {
+            try {
+                return super.addAll(c);
+            } finally {
+                changed();
+            }
+        }
+
+        @Override
+        public synchronized boolean addAll(int index, Collection<? extends ActivityListener> c) {
+            try {
+                return super.addAll(index, c);
+            } finally {
+                changed();
+            }
+        }
+
+        @Override
+        public synchronized boolean removeIf(Predicate<? super ActivityListener> filter) {
+            try {
+                return super.removeIf(filter);
+            } finally {
+                changed();
+            }
+        }
+
+        @Override
+        public synchronized void replaceAll(UnaryOperator<ActivityListener> operator) {
+            try {
+                super.replaceAll(operator);
+            } finally {
+                changed();
+            }
+        }
+
+        @Override
+        public synchronized void sort(Comparator<? super ActivityListener> c) {
+            try {
+                super.sort(c);
+            } finally {
+                changed();
+            }
+        }
+
+        @Override
+        public List<ActivityListener> subList(int fromIndex, int toIndex) {
+            return Collections.unmodifiableList(super.subList(fromIndex, toIndex));
+        }
+    }
+
     /**
      * These listeners get called.
+     * Changing the list updates the listeners of each kind of events, so it should be changed rarely.
      */
-    public static final List<ActivityListener> LIST = new CopyOnWriteArrayList<>();
+    public static final List<ActivityListener> LIST = new ListenerList();
 }
@@ -1,6 +1,7 @@
 package org.kohsuke.file_leak_detector;
 
 import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileDescriptor;
 import java.io.FileInputStream;
@@ -11,10 +12,13 @@ import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.RandomAccessFile;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.lang.instrument.Instrumentation;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.AsynchronousFileChannel;
 import java.nio.channels.FileChannel;
 import java.nio.channels.SeekableByteChannel;
 import java.nio.channels.spi.AbstractInterruptibleChannel;
@@ -27,8 +31,12 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.zip.ZipFile;
@@ -36,6 +44,8 @@ import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.file_leak_detector.transform.ClassTransformSpec;
 import org.kohsuke.file_leak_detector.transform.CodeGenerator;
 import org.kohsuke.file_leak_detector.transform.MethodAppender;
+import org.kohsuke.file_leak_detector.transform.MethodTransformSpec;
+import org.kohsuke.file_leak_detector.transform.TransformCache;
 import org.kohsuke.file_leak_detector.transform.TransformerImpl;
 import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
@@ -48,12 +58,69 @@ import org.objectweb.asm.commons.LocalVariablesSorter;
  * @author Kohsuke Kawaguchi
  */
 public class AgentMain {
+    /*
+     * What premain installed, for detach() to undo. INSTRUMENTATION is null while the agent is not installed.
+     */
+    private static Instrumentation INSTRUMENTATION;
+    /**
+     * System property set while the agent is installed, so that {@code -match} can find the JVMs
+     * to dump without loading the agent into the others.
+     */
+    static final String INSTALLED_PROPERTY = "org.kohsuke.file_leak_detector.installed";
+    private static TransformerImpl TRANSFORMER;
+    private static Class<?>[] TRANSFORMED;
+    /**
+     * How the files are tracked, {@code api} by the JDK classes that open them or {@code fd} by their descriptors.
+     */
+    private static String MODE;
+    /**
+     * The categories of resources that are tracked.
+     */
+    private static Set<ResourceType> TYPES;
+    private static ServerSocket HTTP_SERVER;
+    private static ExecutorService HTTP_EXECUTOR;
+    private static Thread DUMP_AT_SHUTDOWN;
+    /**
+     * Trace and error files opened by the options.
+     */
+    private static final List<Closeable> FILES = new ArrayList<>();
+
     public static void agentmain(String agentArguments, Instrumentation instrumentation) throws Exception {
         premain(agentArguments, instrumentation);
     }
 
-    public static void premain(String agentArguments, Instrumentation instrumentation) throws Exception {
+    public static synchronized void premain(String agentArguments, Instrumentation instrumentation)
+            throws Exception {
+        if (agentArguments != null) {
+            // commands to an agent that is already installed, which don't install anything
+            List<String> args = Arrays.asList(agentArguments.split(","));
+            if (args.contains("detach")) {
+                detach();
+                return;
+            }
+            DumpFormat format = null;
+            String dumpTo = null;
+            for (String t : args) {
+                if (t.equals("dump") || t.startsWith("dump=")) {
+                    format = t.equals("dump") ? DumpFormat.TEXT : DumpFormat.parse(t.substring(5));
+                } else if (t.startsWith("dumpto=")) {
+                    dumpTo = t.substring(7);
+                }
+            }
+            if (format != null) {
+                dump(format, dumpTo);
+                return;
+            }
+        }
+
+        // attached again: only apply the options, the classes are already instrumented
+        boolean installed = INSTRUMENTATION != null;
         int serverPort = -1;
+        Double overhead = null;
+        boolean jmx = false;
+        Path cacheDir = null;
+        String mode = null;
+        Set<ResourceType> types = null;
 
         if (agentArguments != null) {
             // used by Main to prevent the termination of target JVM
@@ -72,30 +139,60 @@ public class AgentMain {
                 } else if (t.startsWith("threshold=")) {
                     Listener.THRESHOLD = Integer.parseInt(t.substring(t.indexOf('=') + 1));
                 } else if (t.equals("trace")) {
+                    PrintWriter old = Listener.TRACE;
                     Listener.TRACE = new PrintWriter(new OutputStreamWriter(System.err, Charset.defaultCharset()));
+                    closeFile(old);
+                } else if (t.startsWith("sample=")) {
+                    Overhead.setSample(Integer.parseInt(t.substring(t.indexOf('=') + 1)));
+                } else if (t.startsWith("overhead=")) {
+                    String percent = t.substring(t.indexOf('=') + 1);
+                    if (percent.endsWith("%")) {
+                        percent = percent.substring(0, percent.length() - 1);
+                    }
+                    overhead = Double.parseDouble(percent);
+                } else if (t.equals("jmx")) {
+                    jmx = true;
+                } else if (t.startsWith("cache=")) {
+                    cacheDir = Paths.get(t.substring(6));
+                } else if (t.equals("mode=api") || t.equals("mode=fd")) {
+                    mode = t.substring(5);
+                } else if (t.startsWith("types=")) {
+                    types = ResourceType.parse(t.substring(6));
+                } else if (t.startsWith("ring=")) {
+                    int size = Integer.parseInt(t.substring(t.indexOf('=') + 1));
+                    Listener.RECORDER = size > 0 ? new FlightRecorder(size) : null;
                 } else if (t.equals("strong")) {
                     Listener.makeStrong();
                 } else if (t.startsWith("http=")) {
                     serverPort = Integer.parseInt(t.substring(t.indexOf('=') + 1));
                 } else if (t.startsWith("trace=")) {
+                    PrintWriter old = Listener.TRACE;
                     Listener.TRACE = new PrintWriter(
                             new OutputStreamWriter(new FileOutputStream(t.substring(6)), StandardCharsets.UTF_8));
+                    FILES.add(Listener.TRACE);
+                    closeFile(old);
                 } else if (t.startsWith("error=")) {
-                    Listener.ERROR = new PrintWriter(
-                            new OutputStreamWriter(new FileOutputStream(t.substring(6)), StandardCharsets.UTF_8));
+                    FileOutputStream error = new FileOutputStream(t.substring(6));
+                    PrintWriter old = Listener.ERROR;
+                    Listener.ERROR = EmergencySink.open(error, StandardCharsets.UTF_8);
+                    FILES.add(Listener.ERROR);
+                    closeFile(old);
                 } else if (t.startsWith("listener=")) {
-                    ActivityListener.LIST.add((ActivityListener) AgentMain.class
-                            .getClassLoader()
-                            .loadClass(t.substring(9))
-                            .getDeclaredConstructor()
-                            .newInstance());
+                    Class<?> c = AgentMain.class.getClassLoader().loadClass(t.substring(9));
+                    if (ActivityListener.LIST.stream().noneMatch(c::isInstance)) {
+                        ActivityListener.LIST.add((ActivityListener) c.getDeclaredConstructor().newInstance());
+                    }
                 } else if (t.equals("dumpatshutdown")) {
-                    Runtime.getRuntime().addShutdownHook(new Thread("File handles dumping shutdown hook") {
+                    if (DUMP_AT_SHUTDOWN != null) {
+                        continue;
+                    }
+                    DUMP_AT_SHUTDOWN = new Thread("File handles dumping shutdown hook") {
                         @Override
                         public void run() {
                             Listener.dump(System.err);
                         }
-                    });
+                    };
+                    Runtime.getRuntime().addShutdownHook(DUMP_AT_SHUTDOWN);
                 } else if (t.startsWith("excludes=")) {
                     try (BufferedReader reader =
                             Files.newBufferedReader(Paths.get(t.substring(9)), StandardCharsets.UTF_8)) {
@@ -107,7 +204,7 @@ public class AgentMain {
 
                             String str = line.trim();
                             // add the entries from the excludes-file, but filter out empty ones and comments
-                            if (!str.isEmpty() && !str.startsWith("#")) {
+                            if (!str.isEmpty() && !str.startsWith("#") && !Listener.EXCLUDES.contains(str)) {
                                 Listener.EXCLUDES.add(str);
                             }
                         }
@@ -123,45 +220,176 @@ public class AgentMain {
             }
         }
 
-        Listener.EXCLUDES.add("sun.nio.ch.PipeImpl$Initializer$LoopbackConnector.run");
+        if (installed) {
+            if (mode != null && !mode.equals(MODE)) {
+                System.err.println("File leak detector is already installed with mode=" + MODE);
+            }
+            if (types != null && !types.equals(TYPES)) {
+                System.err.println("File leak detector is already installed with types=" + toString(TYPES));
+            }
+            if (overhead != null) {
+                Overhead.configure(overhead);
+            }
+            System.err.println("File leak detector reconfigured");
+            startServices(jmx, serverPort);
+            return;
+        }
+
+        Listener.EXCLUDES.add(Listener.PIPE_LOOPBACK);
+        // initializes the management beans it uses, before any of the classes they might load are instrumented
+        Overhead.configure(overhead == null ? 0 : overhead);
         System.err.println("File leak detector installed");
 
         // Make sure the ActivityListener is loaded to prevent recursive death in instrumentation
         ActivityListener.LIST.size();
 
         Listener.AGENT_INSTALLED = true;
-        instrumentation.addTransformer(new TransformerImpl(createSpec()), true);
+        INSTRUMENTATION = instrumentation;
+        System.setProperty(INSTALLED_PROPERTY, "true");
+        MODE = mode != null ? mode : "api";
+        TYPES = types != null ? types : EnumSet.allOf(ResourceType.class);
+        boolean descriptors = MODE.equals("fd");
+        if (descriptors && TYPES.contains(ResourceType.FILES)) {
+            FileDescriptors.open(instrumentation);
+        }
+        Listener.PIPES_BY_DESCRIPTOR = descriptors || !TYPES.contains(ResourceType.FILES);
+        List<ClassTransformSpec> spec = createSpec(descriptors, TYPES);
+        // the transformation depends on the mode and the types, so they are cached separately
+        TransformCache cache = cacheDir != null
+                ? new TransformCache(cacheDir, getAgentVersion() + '/' + MODE + '/' + toString(TYPES))
+                : null;
+        TRANSFORMER = new TransformerImpl(spec, cache);
+        instrumentation.addTransformer(TRANSFORMER, true);
 
+        // the classes of the spec that this JDK has
         List<Class<?>> classes = new ArrayList<>();
-        Collections.addAll(
-                classes,
-                FileInputStream.class,
-                FileOutputStream.class,
-                RandomAccessFile.class,
-                ZipFile.class,
-                AbstractSelectableChannel.class,
-                AbstractInterruptibleChannel.class,
-                FileChannel.class,
-                AbstractSelector.class,
-                Files.class,
-                Socket.class,
-                ServerSocket.class);
-
-        addIfFound(classes, "sun.nio.ch.SocketChannelImpl");
-        addIfFound(classes, "sun.nio.ch.FileChannelImpl");
-        addIfFound(classes, "sun.nio.fs.UnixDirectoryStream");
-        addIfFound(classes, "sun.nio.fs.UnixSecureDirectoryStream");
-        addIfFound(classes, "sun.nio.fs.WindowsDirectoryStream");
-        addIfFound(classes, "jdk.internal.jrtfs.JrtDirectoryStream");
-        addIfFound(classes, "jdk.nio.zipfs.ZipDirectoryStream");
-
-        instrumentation.retransformClasses(classes.toArray(new Class[0]));
+        for (ClassTransformSpec s : spec) {
+            addIfFound(classes, s.name.replace('/', '.'));
+        }
+        TRANSFORMED = classes.toArray(new Class[0]);
+        instrumentation.retransformClasses(TRANSFORMED);
+
+        startServices(jmx, serverPort);
+    }
+
+    /**
+     * Writes the open descriptors to the given file, or to stderr if it is null.
+     */
+    private static void dump(DumpFormat format, String file) throws IOException {
+        // rendered before the file is opened, so that it doesn't show up in the dump
+        StringWriter dump = new StringWriter();
+        if (INSTRUMENTATION == null) {
+            dump.write("File leak detector is not installed" + System.lineSeparator());
+        } else {
+            Listener.dump(format, dump);
+        }
+        if (file == null) {
+            System.err.print(dump);
+            System.err.flush();
+        } else {
+            try (Writer w = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+                w.write(dump.toString());
+            }
+        }
+    }
 
+    private static void startServices(boolean jmx, int serverPort) throws Exception {
+        if (jmx || serverPort >= 0) {
+            Overhead.report();
+        }
+        if (jmx) {
+            FileLeakDetector.register();
+        }
         if (serverPort >= 0) {
-            runHttpServer(serverPort);
+            if (HTTP_SERVER != null) {
+                System.err.println("Already serving file leak stats on http://localhost:" + HTTP_SERVER.getLocalPort());
+            } else {
+                runHttpServer(serverPort);
+            }
+        }
+    }
+
+    /**
+     * Closes a trace or error file opened by an earlier option, once it has been replaced.
+     * Closing it is recorded too, so it must no longer be in use by then.
+     */
+    private static void closeFile(PrintWriter w) {
+        if (FILES.remove(w)) {
+            w.close();
         }
     }
 
+    /**
+     * Formats the types the way they are given to the {@code types} option.
+     */
+    private static String toString(Set<ResourceType> types) {
+        StringBuilder b = new StringBuilder();
+        for (ResourceType t : types) {
+            b.append(b.length() == 0 ? "" : "+").append(t.name().toLowerCase(Locale.ROOT));
+        }
+        return b.toString();
+    }
+
+    /**
+     * Identifies this build of the agent, to tell apart the classes it transformed from those of another build.
+     */
+    private static String getAgentVersion() {
+        String version = AgentMain.class.getPackage().getImplementationVersion();
+        try {
+            // snapshots keep their version across builds
+            File jar = new File(AgentMain.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+            return version + '@' + jar.lastModified();
+        } catch (Exception e) {
+            return version;
+        }
+    }
+
+    /**
+     * Removes the instrumentation, stops the HTTP server and forgets everything recorded,
+     * the options and the activity listeners, leaving the JVM as if the agent had never been attached
+     * but for the classes of the agent, which stay loaded.
+     */
+    public static synchronized void detach() throws Exception {
+        if (INSTRUMENTATION == null) {
+            System.err.println("File leak detector is not installed");
+            return;
+        }
+
+        // without our transformer, retransforming brings back the original classes
+        INSTRUMENTATION.removeTransformer(TRANSFORMER);
+        INSTRUMENTATION.retransformClasses(TRANSFORMED);
+        Listener.AGENT_INSTALLED = false;
+        INSTRUMENTATION = null;
+        System.clearProperty(INSTALLED_PROPERTY);
+        TRANSFORMER = null;
+        TRANSFORMED = null;
+        MODE = null;
+        TYPES = null;
+
+        if (HTTP_SERVER != null) {
+            HTTP_SERVER.close();
+            HTTP_EXECUTOR.shutdownNow();
+            HTTP_SERVER = null;
+            HTTP_EXECUTOR = null;
+        }
+        if (DUMP_AT_SHUTDOWN != null) {
+            Runtime.getRuntime().removeShutdownHook(DUMP_AT_SHUTDOWN);
+            DUMP_AT_SHUTDOWN = null;
+        }
+        FileLeakDetector.unregister();
+
+        Listener.TRACE = null;
+        Listener.ERROR = EmergencySink.open(System.err, Charset.defaultCharset());
+        for (Closeable file : FILES) {
+            file.close();
+        }
+        FILES.clear();
+        ActivityListener.LIST.clear();
+        Listener.reset();
+        Overhead.reset();
+        System.err.println("File leak detector detached");
+    }
+
     private static void addIfFound(List<Class<?>> classes, String className) {
         try {
             classes.add(Class.forName(className));
@@ -184,6 +412,8 @@ public class AgentMain {
             t.setDaemon(true);
             return t;
         });
+        HTTP_SERVER = ss;
+        HTTP_EXECUTOR = es;
         es.submit(() -> {
             while (true) {
                 final Socket s = ss.accept();
@@ -191,13 +421,29 @@ public class AgentMain {
                     try {
                         BufferedReader in =
                                 new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
-                        // Read the request line (and ignore it)
-                        in.readLine();
+                        // Read the request line, e.g. "GET /events HTTP/1.1"
+                        String path = getRequestPath(in.readLine());
 
                         PrintWriter w =
                                 new PrintWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8));
                         w.print("HTTP/1.0 200 OK\r\nContent-Type: text/plain;charset=UTF-8\r\n\r\n");
-                        Listener.dump(w);
+                        if (path.equals("/detach")) {
+                            w.println("Detaching file leak detector");
+                            w.flush();
+                            s.close();
+                            // this also stops the thread we are running in
+                            detach();
+                        } else if (path.equals("/events")) {
+                            Listener.dumpRecentEvents(w);
+                        } else if (path.equals("/overhead")) {
+                            Listener.dumpOverhead(w);
+                        } else if (path.equals("/owners")) {
+                            Listener.dumpOwners(w);
+                        } else if (path.equals("/mappings")) {
+                            Listener.dumpMappings(w);
+                        } else {
+                            Listener.dump(w);
+                        }
                     } finally {
                         s.close();
                     }
@@ -207,6 +453,22 @@ public class AgentMain {
         });
     }
 
+    /**
+     * Extracts the path from an HTTP request line, without the query string.
+     */
+    static String getRequestPath(String requestLine) {
+        if (requestLine == null) {
+            return "/";
+        }
+        String[] tokens = requestLine.split(" ");
+        if (tokens.length < 2) {
+            return "/";
+        }
+        String path = tokens[1];
+        int q = path.indexOf('?');
+        return q < 0 ? path : path.substring(0, q);
+    }
+
     private static void usage() {
         System.err.println("File leak detector arguments (to specify multiple values, separate them by ',':");
         printOptions();
@@ -224,170 +486,424 @@ public class AgentMain {
         System.err.println("  http=PORT      - Run a mini HTTP server that you can access to get stats on demand.");
         System.err.println(
                 "                   Specify 0 to choose random available port, -1 to disable, which is default.");
+        System.err.println("                   /events shows the recent open/close events,");
+        System.err.println("                   /overhead the time and memory spent recording them,");
+        System.err.println("                   /owners the descriptors by the jar or class loader that opened them,");
+        System.err.println("                   /mappings the bytes of files mapped into memory.");
+        System.err.println("                   /detach detaches the agent, like the detach option.");
         System.err.println("  strong         - Don't let GC auto-close leaking file descriptors.");
+        System.err.println("  sample=N       - At sites that opened more than N descriptors, only capture the stack");
+        System.err.println("                   trace of one in N opens. The others show the stack trace of an earlier");
+        System.err.println("                   open at the same site. Defaults to 1, capturing every stack trace.");
+        System.err.println("                   Ignored with excludes=, which are matched against the stack trace");
+        System.err.println("                   of every open.");
+        System.err.println("  overhead=P%    - Keep the time spent recording open/close events under P% of the CPU time");
+        System.err.println("                   of the process, by capturing fewer stack traces unless excludes= is");
+        System.err.println("                   given, then by not writing the trace, and as a last resort by only");
+        System.err.println("                   counting the events.");
+        System.err.println("  jmx            - Register the " + FileLeakDetector.OBJECT_NAME + " MBean.");
+        System.err.println("  ring=N         - Keep the last N open/close events to show in dumps and at /events.");
+        System.err.println("                   Defaults to 1024, specify 0 to disable.");
+        System.err.println("  cache=DIR      - Keep the instrumented JDK classes in this directory, so that later JVMs");
+        System.err.println("                   of the same JDK and agent start faster.");
+        System.err.println("  mode=fd        - Track files by the descriptors the JDK registers for cleanup, with one");
+        System.err.println("                   record per descriptor and fewer hooks, rather than by the streams,");
+        System.err.println("                   channels and zip files that open them, which is mode=api, the default.");
+        System.err.println("  types=T+...    - Only track these types of resources, without instrumenting the JDK");
+        System.err.println("                   classes of the others: files, dirstreams, pipes, selectors, sockets,");
+        System.err.println("                   mappings, processes and watchservices. All of them by default.");
         System.err.println(
                 "  listener=S     - Specify the fully qualified name of ActivityListener class to activate from beginning.");
         System.err.println("  dumpatshutdown - Dump open file handles at shutdown.");
         System.err.println("  excludes=FILE  - Ignore files opened directly/indirectly in specific methods.");
         System.err.println("                   File lists 'some.pkg.ClassName.methodName' patterns.");
+        System.err.println("  detach         - Detach the agent already attached to the JVM: restore the original");
+        System.err.println("                   JDK classes, stop the HTTP server and forget the open descriptors.");
+        System.err.println("  dump[=FORMAT]  - Print the descriptors open in the JVM the agent is already attached to.");
+        System.err.println("                   FORMAT is text (the default), json, or grouped to count the descriptors");
+        System.err.println("                   opened by the same stack trace together.");
+    }
+
+    /**
+     * Returns how the agent transforms the JDK classes.
+     * Public so that the transformation can be benchmarked on its own.
+     */
+    public static List<ClassTransformSpec> createSpec() {
+        return createSpec(false);
+    }
+
+    /**
+     * Returns how the agent transforms the JDK classes.
+     *
+     * @param descriptors
+     *      True for {@code mode=fd}, to track the descriptors of files rather than the objects that open them.
+     */
+    public static List<ClassTransformSpec> createSpec(boolean descriptors) {
+        return createSpec(descriptors, EnumSet.allOf(ResourceType.class));
     }
 
-    static List<ClassTransformSpec> createSpec() {
+    /**
+     * Returns how the agent transforms the JDK classes to track the given types of resources.
+     * Classes that are shared by several types only get the hooks of the chosen ones,
+     * and classes that no chosen type needs aren't in the list at all.
+     *
+     * @param descriptors
+     *      True for {@code mode=fd}, to track the descriptors of files rather than the objects that open them.
+     */
+    public static List<ClassTransformSpec> createSpec(boolean descriptors, Set<ResourceType> types) {
+        boolean files = types.contains(ResourceType.FILES);
+        boolean windows = System.getProperty("os.name").startsWith("Windows");
         List<ClassTransformSpec> spec = new ArrayList<>();
-        Collections.addAll(
-                spec,
-                newSpec(FileOutputStream.class, "(Ljava/io/File;Z)V"),
-                newSpec(FileInputStream.class, "(Ljava/io/File;)V"),
-                newSpec(RandomAccessFile.class, "(Ljava/io/File;Ljava/lang/String;)V"),
-                newSpec(ZipFile.class, "(Ljava/io/File;I)V"),
-
-                /*
-                 * Detect the files opened via FileChannel.open(...) calls
-                 */
-                new ClassTransformSpec(
-                        FileChannel.class,
-                        new ReturnFromStaticMethodInterceptor(
-                                "open",
-                                "(Ljava/nio/file/Path;Ljava/util/Set;[Ljava/nio/file/attribute/FileAttribute;)Ljava/nio/channels/FileChannel;",
-                                4,
-                                "openFileChannel",
-                                FileChannel.class,
-                                Path.class)),
-                /*
-                 * Detect instances opened via static methods in class java.nio.file.Files
-                 */
-                new ClassTransformSpec(
-                        Files.class,
-                        // SeekableByteChannel newByteChannel(Path path, Set<? extends OpenOption> options,
-                        // FileAttribute<?>... attrs)
-                        new ReturnFromStaticMethodInterceptor(
-                                "newByteChannel",
-                                "(Ljava/nio/file/Path;Ljava/util/Set;[Ljava/nio/file/attribute/FileAttribute;)Ljava/nio/channels/SeekableByteChannel;",
-                                4,
-                                "openFileChannel",
-                                SeekableByteChannel.class,
-                                Path.class),
-                        // DirectoryStream<Path> newDirectoryStream(Path dir)
-                        new ReturnFromStaticMethodInterceptor(
-                                "newDirectoryStream",
-                                "(Ljava/nio/file/Path;)Ljava/nio/file/DirectoryStream;",
-                                2,
-                                "openDirectoryStream",
-                                DirectoryStream.class,
-                                Path.class),
-                        // DirectoryStream<Path> newDirectoryStream(Path dir, String glob)
-                        new ReturnFromStaticMethodInterceptor(
-                                "newDirectoryStream",
-                                "(Ljava/nio/file/Path;Ljava/lang/String;)Ljava/nio/file/DirectoryStream;",
-                                6,
-                                "openDirectoryStream",
-                                DirectoryStream.class,
-                                Path.class),
-                        // DirectoryStream<Path> newDirectoryStream(Path dir, DirectoryStream.Filter<? super Path>
-                        // filter)
-                        new ReturnFromStaticMethodInterceptor(
-                                "newDirectoryStream",
-                                "(Ljava/nio/file/Path;Ljava/nio/file/DirectoryStream$Filter;)Ljava/nio/file/DirectoryStream;",
-                                3,
-                                "openDirectoryStream",
-                                DirectoryStream.class,
-                                Path.class)),
-                /*
-                 * Detect new Pipes
-                 */
-                new ClassTransformSpec(
-                        AbstractSelectableChannel.class,
-                        new ConstructorInterceptor("(Ljava/nio/channels/spi/SelectorProvider;)V", "openPipe")),
-                /*
-                 * AbstractInterruptibleChannel is used by FileChannel and Pipes
-                 */
-                new ClassTransformSpec(AbstractInterruptibleChannel.class, new CloseInterceptor("close")));
-        /*
-         * We need to see closing of DirectoryStream instances,
-         * however they are OS-specific, so we need to list them via String-name
-         */
-        if (!System.getProperty("os.name").startsWith("Windows")) {
+        if (files && descriptors) {
             Collections.addAll(
                     spec,
-                    new ClassTransformSpec("sun/nio/fs/UnixDirectoryStream", new CloseInterceptor("close")),
-                    new ClassTransformSpec("sun/nio/fs/UnixSecureDirectoryStream", new CloseInterceptor("close")));
-        } else {
+                    /*
+                     * Every file opened by a stream or a RandomAccessFile, which ZipFile uses too, registers
+                     * its FileDescriptor for cleanup, and is closed through it.
+                     * The constructors are only wrapped to detect running out of descriptors.
+                     */
+                    new ClassTransformSpec("java/io/FileCleanable", new OpenDescriptorInterceptor("register")),
+                    new ClassTransformSpec(FileDescriptor.class, new CloseInterceptor("close")),
+                    new ClassTransformSpec(
+                            FileOutputStream.class, new OutOfDescriptorsInterceptor("<init>", "(Ljava/io/File;Z)V", "open")),
+                    new ClassTransformSpec(
+                            FileInputStream.class, new OutOfDescriptorsInterceptor("<init>", "(Ljava/io/File;)V", "open")),
+                    new ClassTransformSpec(
+                            RandomAccessFile.class,
+                            new OutOfDescriptorsInterceptor("<init>", "(Ljava/io/File;Ljava/lang/String;)V", "open")));
+        } else if (files) {
             Collections.addAll(
-                    spec, new ClassTransformSpec("sun/nio/fs/WindowsDirectoryStream", new CloseInterceptor("close")));
-        }
-
-        spec.add(new ClassTransformSpec("jdk/internal/jrtfs/JrtDirectoryStream", new CloseInterceptor("close")));
-        spec.add(new ClassTransformSpec("jdk/nio/zipfs/ZipDirectoryStream", new CloseInterceptor("close")));
+                    spec,
+                    newSpec(FileOutputStream.class, "(Ljava/io/File;Z)V"),
+                    newSpec(FileInputStream.class, "(Ljava/io/File;)V"),
+                    newSpec(RandomAccessFile.class, "(Ljava/io/File;Ljava/lang/String;)V"),
+                    newSpec(ZipFile.class, "(Ljava/io/File;I)V"),
 
+                    /*
+                     * Detect the files opened via FileChannel.open(...) calls
+                     */
+                    new ClassTransformSpec(
+                            FileChannel.class,
+                            new ReturnFromStaticMethodInterceptor(
+                                    "open",
+                                    "(Ljava/nio/file/Path;Ljava/util/Set;[Ljava/nio/file/attribute/FileAttribute;)Ljava/nio/channels/FileChannel;",
+                                    4,
+                                    "openFileChannel",
+                                    FileChannel.class,
+                                    Path.class)));
+        }
+        if (files) {
+            /*
+             * Detect the files opened via AsynchronousFileChannel.open(...) calls,
+             * the other overload delegates to this one
+             */
+            spec.add(new ClassTransformSpec(
+                    AsynchronousFileChannel.class,
+                    new ReturnFromStaticMethodInterceptor(
+                            "open",
+                            "(Ljava/nio/file/Path;Ljava/util/Set;Ljava/util/concurrent/ExecutorService;[Ljava/nio/file/attribute/FileAttribute;)Ljava/nio/channels/AsynchronousFileChannel;",
+                            4,
+                            "openAsynchronousFileChannel",
+                            AsynchronousFileChannel.class,
+                            Path.class)));
+            spec.add(new ClassTransformSpec(
+                    windows
+                            ? "sun/nio/ch/WindowsAsynchronousFileChannelImpl"
+                            : "sun/nio/ch/SimpleAsynchronousFileChannelImpl",
+                    new CloseInterceptor("close")));
+        }
         /*
-         * Detect selectors, which may open native pipes and anonymous inodes for event polling.
-         */
-        spec.add(new ClassTransformSpec(
-                AbstractSelector.class,
-                new ConstructorInterceptor("(Ljava/nio/channels/spi/SelectorProvider;)V", "openSelector"),
-                new CloseInterceptor("close")));
-        /*
-         * java.net.Socket/ServerSocket delegate to an internal SocketImpl (NioSocketImpl since Java 13),
-         * which no longer has a back-reference to its owning Socket/ServerSocket. So we track at the
-         * public API level instead: a Socket from successful connect() (or being handed out by
-         * ServerSocket.implAccept) until close(), a ServerSocket from successful bind() until close().
+         * Detect instances opened via static methods in class java.nio.file.Files
          */
-        spec.add(new ClassTransformSpec(
-                "java/net/Socket",
-                // all connecting constructors funnel into connect(SocketAddress, int);
-                // the file descriptor is allocated inside the wrapped SocketImpl.connect call
-                new OpenSocketInterceptor("connect", "(Ljava/net/SocketAddress;I)V", "connect"),
-                new CloseInterceptor("close")));
-        spec.add(new ClassTransformSpec(
-                "java/net/ServerSocket",
-                // all binding constructors funnel into bind(SocketAddress, int);
-                // the file descriptor is allocated inside the wrapped SocketImpl.bind call
-                new OpenSocketInterceptor("bind", "(Ljava/net/SocketAddress;I)V", "bind"),
-
-                // when a socket is accepted, it goes through "implAccept(Socket s)"
-                // where 's' is the new socket and 'this' is the server socket;
-                // implAccept is final, so subclass accept() overrides also pass through it
-                new AcceptInterceptor("implAccept", "(Ljava/net/Socket;)V"),
-                new CloseInterceptor("close")));
-        spec.add(new ClassTransformSpec(
-                "sun/nio/ch/SocketChannelImpl",
-                // accepted channels are created with the file descriptor and remote address
-                new OpenSocketInterceptor(
-                        "<init>",
-                        "(Ljava/nio/channels/spi/SelectorProvider;Ljava/net/ProtocolFamily;Ljava/io/FileDescriptor;Ljava/net/SocketAddress;)V",
-                        "socketCreate"),
-                new OpenSocketInterceptor("<init>", "(Ljava/nio/channels/spi/SelectorProvider;)V", "socketCreate"),
-                new OpenSocketInterceptor(
-                        "<init>", "(Ljava/nio/channels/spi/SelectorProvider;Ljava/net/ProtocolFamily;)V", "socketCreate"),
-                new CloseInterceptor("kill")));
-        spec.add(new ClassTransformSpec(
-                "sun/nio/ch/FileChannelImpl",
-                new ReturnFromStaticMethodInterceptor(
-                        "open",
-                        "(Ljava/io/FileDescriptor;Ljava/lang/String;ZZZLjava/io/Closeable;)Ljava/nio/channels/FileChannel;",
-                        4,
-                        "openFileString",
-                        Object.class,
-                        FileDescriptor.class,
-                        String.class),
-                // this is for java 11/17 - which use Object instead of Closeable as the last parameter
-                new ReturnFromStaticMethodInterceptor(
-                        "open",
-                        "(Ljava/io/FileDescriptor;Ljava/lang/String;ZZZLjava/lang/Object;)Ljava/nio/channels/FileChannel;",
-                        4,
-                        "openFileString",
-                        Object.class,
-                        FileDescriptor.class,
-                        String.class),
-                // this is for java 25+ - which added a boolean parameter
-                new ReturnFromStaticMethodInterceptor(
-                        "open",
-                        "(Ljava/io/FileDescriptor;Ljava/lang/String;ZZZZLjava/io/Closeable;)Ljava/nio/channels/FileChannel;",
-                        7,
-                        "openFileString",
-                        Object.class,
-                        FileDescriptor.class,
-                        String.class)));
+        List<MethodTransformSpec> opens = new ArrayList<>();
+        if (files) {
+            // SeekableByteChannel newByteChannel(Path path, Set<? extends OpenOption> options,
+            // FileAttribute<?>... attrs); with mode=fd, the descriptor of the channel is tracked instead
+            opens.add(
+                    descriptors
+                            ? new OutOfDescriptorsInterceptor(
+                                    "newByteChannel",
+                                    "(Ljava/nio/file/Path;Ljava/util/Set;[Ljava/nio/file/attribute/FileAttribute;)Ljava/nio/channels/SeekableByteChannel;",
+                                    "newByteChannel")
+                            : new ReturnFromStaticMethodInterceptor(
+                                    "newByteChannel",
+                                    "(Ljava/nio/file/Path;Ljava/util/Set;[Ljava/nio/file/attribute/FileAttribute;)Ljava/nio/channels/SeekableByteChannel;",
+                                    4,
+                                    "openFileChannel",
+                                    SeekableByteChannel.class,
+                                    Path.class));
+        }
+        if (types.contains(ResourceType.DIRSTREAMS)) {
+            Collections.addAll(
+                    opens,
+                    // DirectoryStream<Path> newDirectoryStream(Path dir)
+                    new ReturnFromStaticMethodInterceptor(
+                            "newDirectoryStream",
+                            "(Ljava/nio/file/Path;)Ljava/nio/file/DirectoryStream;",
+                            2,
+                            "openDirectoryStream",
+                            DirectoryStream.class,
+                            Path.class),
+                    // DirectoryStream<Path> newDirectoryStream(Path dir, String glob)
+                    new ReturnFromStaticMethodInterceptor(
+                            "newDirectoryStream",
+                            "(Ljava/nio/file/Path;Ljava/lang/String;)Ljava/nio/file/DirectoryStream;",
+                            6,
+                            "openDirectoryStream",
+                            DirectoryStream.class,
+                            Path.class),
+                    // DirectoryStream<Path> newDirectoryStream(Path dir, DirectoryStream.Filter<? super Path>
+                    // filter)
+                    new ReturnFromStaticMethodInterceptor(
+                            "newDirectoryStream",
+                            "(Ljava/nio/file/Path;Ljava/nio/file/DirectoryStream$Filter;)Ljava/nio/file/DirectoryStream;",
+                            3,
+                            "openDirectoryStream",
+                            DirectoryStream.class,
+                            Path.class));
+            /*
+             * We need to see closing of DirectoryStream instances,
+             * however they are OS-specific, so we need to list them via String-name
+             */
+            if (!windows) {
+                Collections.addAll(
+                        spec,
+                        new ClassTransformSpec("sun/nio/fs/UnixDirectoryStream", new CloseInterceptor("close")),
+                        new ClassTransformSpec("sun/nio/fs/UnixSecureDirectoryStream", new CloseInterceptor("close")));
+            } else {
+                spec.add(new ClassTransformSpec("sun/nio/fs/WindowsDirectoryStream", new CloseInterceptor("close")));
+            }
+            spec.add(new ClassTransformSpec("jdk/internal/jrtfs/JrtDirectoryStream", new CloseInterceptor("close")));
+            spec.add(new ClassTransformSpec("jdk/nio/zipfs/ZipDirectoryStream", new CloseInterceptor("close")));
+        }
+        if (!opens.isEmpty()) {
+            spec.add(new ClassTransformSpec(Files.class, opens.toArray(new MethodTransformSpec[0])));
+        }
+        if (types.contains(ResourceType.PIPES)) {
+            /*
+             * Detect new Pipes
+             */
+            spec.add(new ClassTransformSpec(
+                    AbstractSelectableChannel.class,
+                    new ConstructorInterceptor("(Ljava/nio/channels/spi/SelectorProvider;)V", "openPipe")));
+        }
+        if (types.contains(ResourceType.PIPES) || types.contains(ResourceType.SOCKETS) || files && !descriptors) {
+            /*
+             * AbstractInterruptibleChannel is used by FileChannel, Pipes and the socket and datagram channels,
+             * whose kill() is only called when they were registered with a selector
+             */
+            spec.add(new ClassTransformSpec(AbstractInterruptibleChannel.class, new CloseInterceptor("close")));
+        }
+
+        if (types.contains(ResourceType.SELECTORS)) {
+            /*
+             * Detect selectors, which may open native pipes and anonymous inodes for event polling.
+             */
+            spec.add(new ClassTransformSpec(
+                    AbstractSelector.class,
+                    new ConstructorInterceptor("(Ljava/nio/channels/spi/SelectorProvider;)V", "openSelector"),
+                    new CloseInterceptor("close")));
+        }
+        if (types.contains(ResourceType.SOCKETS)) {
+            /*
+             * java.net.Socket/ServerSocket delegate to an internal SocketImpl (NioSocketImpl since Java 13),
+             * which no longer has a back-reference to its owning Socket/ServerSocket. So we track at the
+             * public API level instead: a Socket from successful connect() (or being handed out by
+             * ServerSocket.implAccept) until close(), a ServerSocket from successful bind() until close().
+             */
+            spec.add(new ClassTransformSpec(
+                    "java/net/Socket",
+                    // all connecting constructors funnel into connect(SocketAddress, int);
+                    // the file descriptor is allocated inside the wrapped SocketImpl.connect call
+                    new OpenSocketInterceptor("connect", "(Ljava/net/SocketAddress;I)V", "connect"),
+                    new CloseInterceptor("close")));
+            spec.add(new ClassTransformSpec(
+                    "java/net/ServerSocket",
+                    // all binding constructors funnel into bind(SocketAddress, int);
+                    // the file descriptor is allocated inside the wrapped SocketImpl.bind call
+                    new OpenSocketInterceptor("bind", "(Ljava/net/SocketAddress;I)V", "bind"),
+
+                    // when a socket is accepted, it goes through "implAccept(Socket s)"
+                    // where 's' is the new socket and 'this' is the server socket;
+                    // implAccept is final, so subclass accept() overrides also pass through it
+                    new AcceptInterceptor("implAccept", "(Ljava/net/Socket;)V"),
+                    new CloseInterceptor("close")));
+            spec.add(new ClassTransformSpec(
+                    "sun/nio/ch/SocketChannelImpl",
+                    // accepted channels are created with the file descriptor and remote address
+                    new OpenSocketInterceptor(
+                            "<init>",
+                            "(Ljava/nio/channels/spi/SelectorProvider;Ljava/net/ProtocolFamily;Ljava/io/FileDescriptor;Ljava/net/SocketAddress;)V",
+                            "socketCreate"),
+                    new OpenSocketInterceptor("<init>", "(Ljava/nio/channels/spi/SelectorProvider;)V", "socketCreate"),
+                    new OpenSocketInterceptor(
+                            "<init>", "(Ljava/nio/channels/spi/SelectorProvider;Ljava/net/ProtocolFamily;)V", "socketCreate"),
+                    new CloseInterceptor("kill")));
+            spec.add(new ClassTransformSpec(
+                    "sun/nio/ch/ServerSocketChannelImpl",
+                    // inherited channels are created with a file descriptor that may already be bound
+                    new OpenSocketInterceptor(
+                            "<init>",
+                            "(Ljava/nio/channels/spi/SelectorProvider;Ljava/net/ProtocolFamily;Ljava/io/FileDescriptor;Z)V",
+                            "serverSocket"),
+                    new OpenSocketInterceptor("<init>", "(Ljava/nio/channels/spi/SelectorProvider;)V", "serverSocket"),
+                    new OpenSocketInterceptor(
+                            "<init>", "(Ljava/nio/channels/spi/SelectorProvider;Ljava/net/ProtocolFamily;)V", "serverSocket"),
+                    new BindInterceptor("bind", "(Ljava/net/SocketAddress;I)Ljava/nio/channels/ServerSocketChannel;"),
+                    // the accepted SocketChannelImpl is tracked by itself, this is only to detect running out of them
+                    new OutOfDescriptorsInterceptor(
+                            "implAccept",
+                            "(Ljava/io/FileDescriptor;Ljava/io/FileDescriptor;[Ljava/net/SocketAddress;)I",
+                            "accept"),
+                    new CloseInterceptor("kill")));
+            /*
+             * DatagramSocket delegates to a DatagramChannelImpl since Java 15, so this covers both.
+             */
+            spec.add(new ClassTransformSpec(
+                    "sun/nio/ch/DatagramChannelImpl",
+                    new OpenSocketInterceptor(
+                            "<init>", "(Ljava/nio/channels/spi/SelectorProvider;Ljava/io/FileDescriptor;)V", "socket"),
+                    new OpenSocketInterceptor("<init>", "(Ljava/nio/channels/spi/SelectorProvider;Z)V", "socket"),
+                    new OpenSocketInterceptor(
+                            "<init>", "(Ljava/nio/channels/spi/SelectorProvider;Ljava/net/ProtocolFamily;Z)V", "socket"),
+                    new BindInterceptor("bind", "(Ljava/net/SocketAddress;)Ljava/nio/channels/DatagramChannel;"),
+                    new CloseInterceptor("kill")));
+            /*
+             * Asynchronous socket channels share these base classes on all platforms,
+             * which allocate the file descriptor and close it in a final close() method.
+             */
+            spec.add(new ClassTransformSpec(
+                    "sun/nio/ch/AsynchronousSocketChannelImpl",
+                    new OpenSocketInterceptor("<init>", "(Lsun/nio/ch/AsynchronousChannelGroupImpl;)V", "socket"),
+                    // accepted channels are created with the file descriptor and remote address
+                    new OpenSocketInterceptor(
+                            "<init>",
+                            "(Lsun/nio/ch/AsynchronousChannelGroupImpl;Ljava/io/FileDescriptor;Ljava/net/InetSocketAddress;)V",
+                            "socket"),
+                    new CloseInterceptor("close")));
+            spec.add(new ClassTransformSpec(
+                    "sun/nio/ch/AsynchronousServerSocketChannelImpl",
+                    new OpenSocketInterceptor("<init>", "(Lsun/nio/ch/AsynchronousChannelGroupImpl;)V", "serverSocket"),
+                    new CloseInterceptor("close")));
+        }
+        List<MethodTransformSpec> channel = new ArrayList<>();
+        if (files && descriptors) {
+            /*
+             * Channels that aren't opened from a stream or a RandomAccessFile have a descriptor of their own,
+             * which is closed through FileDescriptor like the others.
+             */
+            Collections.addAll(
+                    channel,
+                    new OpenDescriptorInterceptor(
+                            "<init>", "(Ljava/io/FileDescriptor;Ljava/lang/String;ZZZLjava/lang/Object;)V"),
+                    // this is for java 21 - which uses Closeable instead of Object as the last parameter
+                    new OpenDescriptorInterceptor(
+                            "<init>", "(Ljava/io/FileDescriptor;Ljava/lang/String;ZZZLjava/io/Closeable;)V"),
+                    // this is for java 25+ - which added a boolean parameter
+                    new OpenDescriptorInterceptor(
+                            "<init>", "(Ljava/io/FileDescriptor;Ljava/lang/String;ZZZZLjava/io/Closeable;)V"));
+        } else if (files) {
+            Collections.addAll(
+                    channel,
+                    new ReturnFromStaticMethodInterceptor(
+                            "open",
+                            "(Ljava/io/FileDescriptor;Ljava/lang/String;ZZZLjava/io/Closeable;)Ljava/nio/channels/FileChannel;",
+                            4,
+                            "openFileString",
+                            Object.class,
+                            FileDescriptor.class,
+                            String.class),
+                    // this is for java 11/17 - which use Object instead of Closeable as the last parameter
+                    new ReturnFromStaticMethodInterceptor(
+                            "open",
+                            "(Ljava/io/FileDescriptor;Ljava/lang/String;ZZZLjava/lang/Object;)Ljava/nio/channels/FileChannel;",
+                            4,
+                            "openFileString",
+                            Object.class,
+                            FileDescriptor.class,
+                            String.class),
+                    // this is for java 25+ - which added a boolean parameter
+                    new ReturnFromStaticMethodInterceptor(
+                            "open",
+                            "(Ljava/io/FileDescriptor;Ljava/lang/String;ZZZZLjava/io/Closeable;)Ljava/nio/channels/FileChannel;",
+                            7,
+                            "openFileString",
+                            Object.class,
+                            FileDescriptor.class,
+                            String.class));
+        }
+        if (types.contains(ResourceType.MAPPINGS)) {
+            // the mapping outlives the channel; like a static method's parameters,
+            // 'this' and the mode are the locals 0 and 1, and 6 is free once position and size are done
+            channel.add(new ReturnFromStaticMethodInterceptor(
+                    "map",
+                    "(Ljava/nio/channels/FileChannel$MapMode;JJ)Ljava/nio/MappedByteBuffer;",
+                    6,
+                    "map",
+                    Object.class,
+                    Object.class,
+                    FileChannel.MapMode.class));
+            /*
+             * The unmapper is created while mapping, and unmaps the region explicitly or when the buffer is collected.
+             */
+            spec.add(new ClassTransformSpec(
+                    "sun/nio/ch/FileChannelImpl$Unmapper",
+                    new ConstructorInterceptor("(JJJLjava/io/FileDescriptor;I)V", "openMapping"),
+                    new UnmapInterceptor()));
+        }
+        if (!channel.isEmpty()) {
+            spec.add(new ClassTransformSpec("sun/nio/ch/FileChannelImpl", channel.toArray(new MethodTransformSpec[0])));
+        }
+        if (types.contains(ResourceType.WATCHSERVICES)) {
+            /*
+             * Watch services hold an inotify instance and a background thread on Linux,
+             * and a polling thread elsewhere.
+             * Every implementation is closed through AbstractWatchService, and registers AbstractWatchKeys.
+             */
+            spec.add(new ClassTransformSpec("sun/nio/fs/AbstractWatchService", new CloseInterceptor("close")));
+            spec.add(new ClassTransformSpec("sun/nio/fs/AbstractWatchKey", new WatchKeyInterceptor()));
+            if (System.getProperty("os.name").startsWith("Linux")) {
+                spec.add(new ClassTransformSpec(
+                        "sun/nio/fs/LinuxWatchService",
+                        new ConstructorInterceptor("(Lsun/nio/fs/UnixFileSystem;)V", "openWatchService")));
+            } else if (!windows) {
+                spec.add(new ClassTransformSpec(
+                        "sun/nio/fs/PollingWatchService", new ConstructorInterceptor("()V", "openWatchService")));
+            }
+        }
+        if (types.contains(ResourceType.PROCESSES)) {
+            /*
+             * A child process is tracked together with the pipes to its stdin, stdout and stderr,
+             * until they are all closed by the application or when the process exits.
+             */
+            spec.add(new ClassTransformSpec(
+                    "java/lang/ProcessImpl",
+                    new ReturnFromStaticMethodInterceptor(
+                            "start",
+                            "([Ljava/lang/String;Ljava/util/Map;Ljava/lang/String;[Ljava/lang/ProcessBuilder$Redirect;Z)Ljava/lang/Process;",
+                            5,
+                            "openProcess",
+                            Object.class,
+                            String[].class),
+                    // the pipes are created by forkAndExec, which fails with "error=24, Too many open files"
+                    new OutOfDescriptorsInterceptor("<init>", "([B[BI[BI[B[IZZ)V", "forkAndExec"),
+                    // this is for java 11 - which doesn't have the last boolean parameter
+                    new OutOfDescriptorsInterceptor("<init>", "([B[BI[BI[B[IZ)V", "forkAndExec")));
+            if (!windows) {
+                Collections.addAll(
+                        spec,
+                        new ClassTransformSpec(
+                                "java/lang/ProcessImpl$ProcessPipeInputStream",
+                                new ProcessPipeInterceptor("java/io/FilterInputStream", "in", "Ljava/io/InputStream;")),
+                        new ClassTransformSpec(
+                                "java/lang/ProcessImpl$ProcessPipeOutputStream",
+                                new ProcessPipeInterceptor("java/io/FilterOutputStream", "out", "Ljava/io/OutputStream;")));
+                if (!files) {
+                    // the pipes are closed through their descriptors, unless the streams that close them are tracked
+                    spec.add(new ClassTransformSpec(FileDescriptor.class, new CloseInterceptor("close")));
+                }
+            }
+        }
         return spec;
     }
 
@@ -415,6 +931,89 @@ public class AgentMain {
         }
     }
 
+    /**
+     * Intercepts {@code FileChannelImpl.Unmapper.unmap()} and calls {@link Listener#unmap(Object)} in the end.
+     */
+    private static class UnmapInterceptor extends MethodAppender {
+        public UnmapInterceptor() {
+            super("unmap", "()V");
+        }
+
+        @Override
+        protected void append(CodeGenerator g) {
+            g.invokeAppStatic(Listener.class, "unmap", new Class[] {Object.class}, new int[] {0});
+        }
+    }
+
+    /**
+     * Intercepts a method that is given a newly opened descriptor with {@code mode=fd}, and calls
+     * {@link Listener#openDescriptor(Object)} in the end, or {@link Listener#openDescriptor(Object, String)}
+     * for a constructor that is also given the path.
+     */
+    private static class OpenDescriptorInterceptor extends MethodAppender {
+        public OpenDescriptorInterceptor(String name) {
+            super(name, "(Ljava/io/FileDescriptor;)V");
+        }
+
+        public OpenDescriptorInterceptor(String name, String desc) {
+            super(name, desc);
+        }
+
+        @Override
+        protected void append(CodeGenerator g) {
+            if (name.equals("<init>")) {
+                // 'this' is the local 0, then the descriptor and the path
+                g.invokeAppStatic(
+                        Listener.class, "openDescriptor", new Class[] {Object.class, String.class}, new int[] {1, 2});
+            } else {
+                // a static method given the descriptor
+                g.invokeAppStatic(Listener.class, "openDescriptor", new Class[] {Object.class}, new int[] {0});
+            }
+        }
+    }
+
+    /**
+     * Intercepts the constructor of {@code AbstractWatchKey} and calls {@link Listener#registerWatchKey(Object, Object)}
+     * with the key and its watch service.
+     */
+    private static class WatchKeyInterceptor extends MethodAppender {
+        public WatchKeyInterceptor() {
+            super("<init>", "(Ljava/nio/file/Path;Lsun/nio/fs/AbstractWatchService;)V");
+        }
+
+        @Override
+        protected void append(CodeGenerator g) {
+            g.invokeAppStatic(
+                    Listener.class, "registerWatchKey", new Class[] {Object.class, Object.class}, new int[] {0, 2});
+        }
+    }
+
+    /**
+     * Intercepts the constructor of a stream to a child process, and calls {@link Listener#openProcessPipe(Object)}
+     * with the stream it wraps, which is the one whose close releases the pipe.
+     */
+    private static class ProcessPipeInterceptor extends MethodAppender {
+        private final String owner;
+        private final String field;
+        private final String fieldDesc;
+
+        public ProcessPipeInterceptor(String owner, String field, String fieldDesc) {
+            super("<init>", "(I)V");
+            this.owner = owner;
+            this.field = field;
+            this.fieldDesc = fieldDesc;
+        }
+
+        @Override
+        protected void append(CodeGenerator g) {
+            // 'this' and the descriptor number are the locals 0 and 1
+            g.aload(0);
+            g.visitFieldInsn(Opcodes.GETFIELD, owner, field, fieldDesc);
+            g.astore(2);
+            g.invokeAppStatic(Listener.class, "openProcessPipe", new Class[] {Object.class}, new int[] {2});
+        }
+    }
+
     /**
      * Intercepts a constructor invocation and calls the given method on {@link Listener} at the end of the constructor.
      */
@@ -462,6 +1061,48 @@ public class AgentMain {
         }
     }
 
+    /**
+     * Intercepts the method binding a channel to a local address, to show where it listens.
+     */
+    private static class BindInterceptor extends MethodAppender {
+        public BindInterceptor(String name, String desc) {
+            super(name, desc);
+        }
+
+        @Override
+        protected void append(CodeGenerator g) {
+            // the channel returns itself; the handler of the call clears the stack,
+            // so the return value can't stay on it and is pushed again afterwards
+            g.pop();
+            g.invokeAppStatic(Listener.class, "bindSocket", new Class[] {Object.class}, new int[] {0});
+            g.aload(0);
+        }
+    }
+
+    /**
+     * Wraps a call that allocates a file descriptor tracked elsewhere,
+     * only to detect "too many open files" failures.
+     */
+    private static class OutOfDescriptorsInterceptor extends MethodTransformSpec {
+        private final String calleeToWrap;
+
+        public OutOfDescriptorsInterceptor(String name, String desc, String calleeToWrap) {
+            super(name, desc);
+            this.calleeToWrap = calleeToWrap;
+        }
+
+        @Override
+        public MethodVisitor newAdapter(
+                MethodVisitor base, int access, String name, String desc, String signature, String[] exceptions) {
+            return new OpenInterceptionAdapter(base, access, desc) {
+                @Override
+                protected boolean toIntercept(String owner, String name) {
+                    return name.equals(calleeToWrap);
+                }
+            };
+        }
+    }
+
     /**
      * Used to intercept {@link ServerSocket#implAccept(Socket)}
      */
@@ -0,0 +1,121 @@
+package org.kohsuke.file_leak_detector;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import org.kohsuke.file_leak_detector.ActivityListener.Event;
+
+/**
+ * Delivers the events of an asynchronous {@link ActivityListener} in batches on a thread of its own.
+ *
+ * <p>
+ * Any thread that opens or closes a file adds to a lock-free queue, which the thread of the listener drains.
+ * The queue is bounded by counting the events in it, and the events that don't fit are dropped and counted.
+ * The thread is started with the first event and stops after it has been idle for a while,
+ * so it doesn't outlive a listener that was removed from {@link ActivityListener#LIST}.
+ */
+final class AsyncDispatcher implements Runnable {
+    /**
+     * Most events delivered in one call.
+     */
+    private static final int BATCH = 1024;
+
+    private static final long IDLE = TimeUnit.SECONDS.toNanos(10);
+
+    private final ActivityListener listener;
+    private final int capacity;
+    private final Queue<Event> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final LongAdder dropped = new LongAdder();
+
+    /**
+     * Set while there is a thread delivering the events.
+     */
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    /**
+     * The thread delivering the events, while it waits for more.
+     */
+    private volatile Thread waiting;
+
+    /**
+     * The thread delivering the events, whose own opens and closes aren't reported back to the listener.
+     */
+    private volatile Thread thread;
+
+    AsyncDispatcher(ActivityListener listener, int capacity) {
+        this.listener = listener;
+        this.capacity = capacity;
+    }
+
+    long getDropped() {
+        return dropped.sum();
+    }
+
+    void offer(Event e) {
+        if (Thread.currentThread() == thread) {
+            return;
+        }
+        if (size.incrementAndGet() > capacity) {
+            size.decrementAndGet();
+            dropped.increment();
+            return;
+        }
+        queue.offer(e);
+        if (running.compareAndSet(false, true)) {
+            Thread t = new Thread(this, "File leak detector listener " + listener.getClass().getName());
+            t.setDaemon(true);
+            thread = t;
+            t.start();
+        } else {
+            Thread t = waiting;
+            if (t != null) {
+                LockSupport.unpark(t);
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            List<Event> batch = new ArrayList<>();
+            for (Event e; batch.size() < BATCH && (e = queue.poll()) != null; ) {
+                batch.add(e);
+            }
+            if (!batch.isEmpty()) {
+                size.addAndGet(-batch.size());
+                deliver(batch);
+                continue;
+            }
+
+            // set before looking at the queue again, so that an event added after that wakes us up
+            waiting = Thread.currentThread();
+            if (queue.isEmpty()) {
+                LockSupport.parkNanos(this, IDLE);
+            }
+            waiting = null;
+            if (queue.isEmpty()) {
+                running.set(false);
+                // an event added in the meantime may have seen this thread still running
+                if (queue.isEmpty() || !running.compareAndSet(false, true)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void deliver(List<Event> batch) {
+        try {
+            listener.onEvents(batch);
+        } catch (RuntimeException | Error e) {
+            // keep delivering the events that follow
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package org.kohsuke.file_leak_detector;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import org.kohsuke.file_leak_detector.Listener.Record;
+
+/**
+ * Ways of rendering the open descriptors, chosen with {@code dump=FORMAT}.
+ */
+enum DumpFormat {
+    /**
+     * Same as the dump at the threshold, each descriptor with its stack trace.
+     */
+    TEXT {
+        @Override
+        void write(Record[] records, PrintWriter pw) {
+            Listener.dump(null, records, null, pw);
+        }
+    },
+    /**
+     * One JSON object, for scripts.
+     */
+    JSON {
+        @Override
+        void write(Record[] records, PrintWriter pw) {
+            pw.print("{\"open\":" + records.length + ",\"descriptors\":[");
+            for (int i = 0; i < records.length; i++) {
+                Record r = records[i];
+                pw.print(i == 0 ? "\n" : ",\n");
+                pw.print("{\"type\":" + quote(r.getClass().getSimpleName()));
+                pw.print(",\"description\":" + quote(r.describe()));
+                pw.print(",\"thread\":" + quote(r.threadName));
+                pw.print(",\"time\":" + r.time);
+                pw.print(",\"sampled\":" + r.isSampled());
+                pw.print(",\"owner\":" + quote(r.owner.name));
+                pw.print(",\"stackTrace\":[");
+                StackTraceElement[] frames = r.getFrames();
+                for (int j = 0; j < frames.length; j++) {
+                    pw.print((j == 0 ? "" : ",") + quote(frames[j].toString()));
+                }
+                pw.print("]}");
+            }
+            pw.println("]}");
+            pw.flush();
+        }
+    },
+    /**
+     * Descriptors opened by the same stack trace counted together, the most frequent first.
+     */
+    GROUPED {
+        @Override
+        void write(Record[] records, PrintWriter pw) {
+            Map<List<StackTraceElement>, List<Record>> groups = new LinkedHashMap<>();
+            for (Record r : records) {
+                groups.computeIfAbsent(Arrays.asList(r.getFrames()), k -> new ArrayList<>()).add(r);
+            }
+            List<Map.Entry<List<StackTraceElement>, List<Record>>> sorted = new ArrayList<>(groups.entrySet());
+            sorted.sort((a, b) -> b.getValue().size() - a.getValue().size());
+
+            pw.println(records.length + " descriptors are open, from " + sorted.size() + " stack traces");
+            int i = 0;
+            for (Map.Entry<List<StackTraceElement>, List<Record>> e : sorted) {
+                List<Record> group = e.getValue();
+                pw.println("#" + (++i) + " " + group.size() + " open, like " + group.get(0).describe()
+                        + " by thread:" + group.get(0).threadName);
+                for (StackTraceElement frame : e.getKey()) {
+                    pw.println("\tat " + frame);
+                }
+            }
+            pw.println("----");
+            Owner.dump(records, pw);
+        }
+    };
+
+    abstract void write(Record[] records, PrintWriter pw);
+
+    /**
+     * Parses the value of the {@code dump} option, where no value means {@link #TEXT}.
+     */
+    static DumpFormat parse(String name) {
+        return name.isEmpty() ? TEXT : valueOf(name.toUpperCase(Locale.ROOT));
+    }
+
+    /**
+     * Quotes a string as a JSON string literal.
+     */
+    static String quote(String s) {
+        if (s == null) {
+            return "null";
+        }
+        StringBuilder b = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"':
+                    b.append("\\\"");
+                    break;
+                case '\\':
+                    b.append("\\\\");
+                    break;
+                case '\n':
+                    b.append("\\n");
+                    break;
+                case '\r':
+                    b.append("\\r");
+                    break;
+                case '\t':
+                    b.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        b.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        b.append(c);
+                    }
+            }
+        }
+        return b.append('"').toString();
+    }
+}
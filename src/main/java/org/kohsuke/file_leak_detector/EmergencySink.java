@@ -0,0 +1,39 @@
+package org.kohsuke.file_leak_detector;
+
+import java.io.BufferedOutputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+
+/**
+ * Sets up the writer of {@link Listener#ERROR}, where the "too many open files" dump goes.
+ *
+ * <p>
+ * By the time the process runs out of file descriptors, opening anything (a rotated error file,
+ * a compressing stream, even the time zone data to format a date) is likely to fail.
+ * So the stream, the writer chain on top of it and the buffer it writes through are all
+ * set up front, and writing the dump needs no new descriptor. This is the only writer
+ * on top of the stream, so there is a single buffer in front of it.
+ *
+ * @see Listener#outOfDescriptors()
+ */
+final class EmergencySink {
+    /**
+     * Size of the buffer reserved for the dump.
+     */
+    static final int RESERVED_BUFFER_SIZE = 64 * 1024;
+
+    private EmergencySink() {}
+
+    /**
+     * @param out
+     *      Already opened stream to write to.
+     */
+    static PrintWriter open(OutputStream out, Charset charset) {
+        // make sure the time zone data is loaded now, rather than when we are out of descriptors
+        Listener.format(System.currentTimeMillis());
+        return new PrintWriter(
+                new OutputStreamWriter(new BufferedOutputStream(out, RESERVED_BUFFER_SIZE), charset), false);
+    }
+}
@@ -0,0 +1,208 @@
+package org.kohsuke.file_leak_detector;
+
+import java.io.FileDescriptor;
+import java.io.InputStream;
+import java.lang.instrument.Instrumentation;
+import java.lang.module.Configuration;
+import java.lang.module.ModuleDescriptor;
+import java.lang.module.ModuleFinder;
+import java.lang.module.ModuleReader;
+import java.lang.module.ModuleReference;
+import java.lang.reflect.Field;
+import java.net.URI;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.BiFunction;
+import java.util.stream.Stream;
+
+/**
+ * Looks into the JDK objects that hold a {@link FileDescriptor}, for {@code mode=fd},
+ * where the descriptors rather than the objects that opened them are tracked.
+ *
+ * <p>
+ * The fields are private to the JDK, so their packages are opened when that mode is chosen. The agent is
+ * in the unnamed module, along with everything else on the class path, so they aren't opened to it,
+ * but to a module of their own that only holds {@link Opener}. Instrumentation can't take an opening back,
+ * so it stays after the agent is detached, still only to that module.
+ * If that isn't possible, the descriptors are still tracked, only without the files they belong to.
+ */
+final class FileDescriptors {
+    /**
+     * The stream, {@link java.io.RandomAccessFile} or socket that the descriptor belongs to.
+     */
+    private static volatile Field parent;
+
+    /**
+     * Descriptor of {@code sun.nio.ch.FileChannelImpl}.
+     */
+    private static Field channelDescriptor;
+
+    /**
+     * Name of the module the packages are opened to.
+     */
+    private static final String OPENER_MODULE = "org.kohsuke.file_leak_detector.opener";
+
+    /**
+     * {@link Opener} of the module the packages are opened to, or null until they are.
+     */
+    private static volatile BiFunction<Class<?>, String, Field> opener;
+
+    /**
+     * Path field of each class that holds a descriptor, or null if it doesn't have one.
+     */
+    private static final ClassValue<Field> PATH = new ClassValue<Field>() {
+        @Override
+        protected Field computeValue(Class<?> type) {
+            for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+                try {
+                    Field f = c.getDeclaredField("path");
+                    if (f.getType() == String.class) {
+                        return opener.apply(c, "path");
+                    }
+                } catch (NoSuchFieldException | RuntimeException e) {
+                    // keep looking in the superclass
+                }
+            }
+            return null;
+        }
+    };
+
+    private FileDescriptors() {}
+
+    /**
+     * Opens the packages of the fields to the module of {@link Opener}, once.
+     */
+    static synchronized void open(Instrumentation instrumentation) {
+        if (opener != null) {
+            return;
+        }
+        Module base = FileDescriptor.class.getModule();
+        try {
+            Class<?> c = defineOpenerLayer().findLoader(OPENER_MODULE).loadClass(Opener.class.getName());
+            Set<Module> module = Collections.singleton(c.getModule());
+            if (instrumentation.isModifiableModule(base)) {
+                instrumentation.redefineModule(
+                        base,
+                        Collections.emptySet(),
+                        Collections.emptyMap(),
+                        Map.of("java.io", module, "sun.nio.ch", module),
+                        Collections.emptySet(),
+                        Collections.emptyMap());
+            }
+            @SuppressWarnings("unchecked")
+            BiFunction<Class<?>, String, Field> o =
+                    (BiFunction<Class<?>, String, Field>) c.getConstructor().newInstance();
+            channelDescriptor = o.apply(Class.forName("sun.nio.ch.FileChannelImpl"), "fd");
+            opener = o;
+            parent = o.apply(FileDescriptor.class, "parent");
+        } catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+            System.err.println("File leak detector can't tell the files of the descriptors: " + e);
+        }
+    }
+
+    /**
+     * Defines the module that holds nothing but {@link Opener}, in a layer of its own.
+     */
+    private static ModuleLayer defineOpenerLayer() {
+        String pkg = Opener.class.getPackageName();
+        String resource = Opener.class.getName().replace('.', '/') + ".class";
+        ClassLoader agent = FileDescriptors.class.getClassLoader();
+        ModuleReference ref = new ModuleReference(
+                ModuleDescriptor.newModule(OPENER_MODULE).packages(Set.of(pkg)).exports(pkg).build(), null) {
+            @Override
+            public ModuleReader open() {
+                return new ModuleReader() {
+                    @Override
+                    public Optional<URI> find(String n) {
+                        return Optional.empty();
+                    }
+
+                    @Override
+                    public Optional<InputStream> open(String n) {
+                        return n.equals(resource)
+                                ? Optional.ofNullable(agent.getResourceAsStream(resource))
+                                : Optional.empty();
+                    }
+
+                    @Override
+                    public Stream<String> list() {
+                        return Stream.of(resource);
+                    }
+
+                    @Override
+                    public void close() {}
+                };
+            }
+        };
+        ModuleFinder finder = new ModuleFinder() {
+            @Override
+            public Optional<ModuleReference> find(String n) {
+                return n.equals(OPENER_MODULE) ? Optional.of(ref) : Optional.empty();
+            }
+
+            @Override
+            public Set<ModuleReference> findAll() {
+                return Set.of(ref);
+            }
+        };
+        ModuleLayer boot = ModuleLayer.boot();
+        Configuration cf = boot.configuration().resolve(finder, ModuleFinder.of(), Set.of(OPENER_MODULE));
+        return boot.defineModulesWithOneLoader(cf, agent);
+    }
+
+    /**
+     * Returns the object that the descriptor belongs to, or null if it isn't known.
+     */
+    static Object getParent(FileDescriptor fd) {
+        Field f = parent;
+        try {
+            return f != null ? f.get(fd) : null;
+        } catch (IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the file that the descriptor was opened for, or null if it isn't known.
+     */
+    static String getPath(FileDescriptor fd) {
+        Object p = getParent(fd);
+        Field f = p != null ? PATH.get(p.getClass()) : null;
+        try {
+            return f != null ? (String) f.get(p) : null;
+        } catch (IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the descriptor of a file channel, or null if it isn't known.
+     */
+    static FileDescriptor getDescriptor(Object channel) {
+        Field f = channelDescriptor;
+        try {
+            return f != null && f.getDeclaringClass().isInstance(channel) ? (FileDescriptor) f.get(channel) : null;
+        } catch (IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Makes the fields accessible. This is the only class of the module the packages are opened to,
+     * and it is loaded by the loader of that module, so it can't be used from the class path directly.
+     */
+    public static final class Opener implements BiFunction<Class<?>, String, Field> {
+        @Override
+        public Field apply(Class<?> type, String name) {
+            try {
+                Field f = type.getDeclaredField(name);
+                f.setAccessible(true);
+                return f;
+            } catch (NoSuchFieldException e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
+    }
+}
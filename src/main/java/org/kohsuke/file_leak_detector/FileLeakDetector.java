@@ -0,0 +1,117 @@
+package org.kohsuke.file_leak_detector;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * Exposes the agent over JMX.
+ */
+final class FileLeakDetector implements FileLeakDetectorMXBean {
+    static final String OBJECT_NAME = "org.kohsuke.file_leak_detector:type=FileLeakDetector";
+
+    /**
+     * Registers the MBean with the platform MBean server, unless it is already there.
+     */
+    static void register() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        if (!server.isRegistered(name)) {
+            server.registerMBean(new StandardMBean(new FileLeakDetector(), FileLeakDetectorMXBean.class, true), name);
+        }
+    }
+
+    /**
+     * Removes the MBean, if it is registered.
+     */
+    static void unregister() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        if (server.isRegistered(name)) {
+            server.unregisterMBean(name);
+        }
+    }
+
+    @Override
+    public int getOpenDescriptors() {
+        return Listener.getCurrentOpenFiles().size();
+    }
+
+    @Override
+    public double getOverheadPercent() {
+        return Overhead.getOverheadPercent();
+    }
+
+    @Override
+    public double getOverheadBudgetPercent() {
+        return Overhead.getBudgetPercent();
+    }
+
+    @Override
+    public String getDegradationLevel() {
+        return Overhead.level.name();
+    }
+
+    @Override
+    public Map<String, Long> getEvents() {
+        return Overhead.getEvents();
+    }
+
+    @Override
+    public Map<String, Long> getAverageNanos() {
+        return Overhead.getAverageNanos();
+    }
+
+    @Override
+    public Map<String, Long> getAverageBytes() {
+        return Overhead.getAverageBytes();
+    }
+
+    @Override
+    public Map<String, Long> getOpenDescriptorsByOwner() {
+        return Listener.getLiveByOwner();
+    }
+
+    @Override
+    public Map<String, Long> getOpenedByOwner() {
+        return Owner.getOpened();
+    }
+
+    @Override
+    public Map<String, Long> getClosedByOwner() {
+        return Owner.getClosed();
+    }
+
+    @Override
+    public long getMappedBytes() {
+        return Mappings.getBytes();
+    }
+
+    @Override
+    public long getMappedRegions() {
+        return Mappings.getRegions();
+    }
+
+    @Override
+    public long getMapCount() {
+        return Mappings.getMapped();
+    }
+
+    @Override
+    public long getUnmapCount() {
+        return Mappings.getUnmapped();
+    }
+
+    @Override
+    public Map<String, Long> getMappedBytesByPath() {
+        return Mappings.getBytesByPath();
+    }
+
+    @Override
+    public void detach() throws Exception {
+        AgentMain.detach();
+    }
+}
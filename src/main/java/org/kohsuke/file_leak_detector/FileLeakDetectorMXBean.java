@@ -0,0 +1,93 @@
+package org.kohsuke.file_leak_detector;
+
+import java.util.Map;
+
+/**
+ * Management interface of the agent, registered as {@value FileLeakDetector#OBJECT_NAME}
+ * with the {@code jmx} option.
+ */
+public interface FileLeakDetectorMXBean {
+    /**
+     * Number of descriptors currently tracked as open.
+     */
+    int getOpenDescriptors();
+
+    /**
+     * Time spent recording open/close events in the last second,
+     * in percent of the CPU time used by the process.
+     */
+    double getOverheadPercent();
+
+    /**
+     * Value of the {@code overhead} option, or 0 if there's no budget.
+     */
+    double getOverheadBudgetPercent();
+
+    /**
+     * How much the agent cut down on what it does to stay within the budget,
+     * one of {@code NORMAL}, {@code SAMPLED}, {@code NO_TRACE} or {@code COUNT_ONLY}.
+     * {@code SAMPLED} is skipped with {@code excludes=}, which turns sampling off.
+     */
+    String getDegradationLevel();
+
+    /**
+     * Number of events recorded so far, by kind.
+     */
+    Map<String, Long> getEvents();
+
+    /**
+     * Average time spent recording an event, in nanoseconds, by kind.
+     */
+    Map<String, Long> getAverageNanos();
+
+    /**
+     * Average number of bytes allocated while recording an event, by kind.
+     */
+    Map<String, Long> getAverageBytes();
+
+    /**
+     * Number of descriptors currently open, by the jar or class loader of the code that opened them,
+     * the owner with the most first.
+     */
+    Map<String, Long> getOpenDescriptorsByOwner();
+
+    /**
+     * Number of descriptors opened so far, by owner.
+     */
+    Map<String, Long> getOpenedByOwner();
+
+    /**
+     * Number of descriptors closed so far, by owner.
+     */
+    Map<String, Long> getClosedByOwner();
+
+    /**
+     * Number of bytes of files currently mapped into memory by {@code FileChannel.map}.
+     */
+    long getMappedBytes();
+
+    /**
+     * Number of regions of files currently mapped into memory.
+     */
+    long getMappedRegions();
+
+    /**
+     * Number of regions mapped so far.
+     */
+    long getMapCount();
+
+    /**
+     * Number of regions unmapped so far, explicitly or because their buffer was collected.
+     */
+    long getUnmapCount();
+
+    /**
+     * Number of bytes currently mapped, by file, the largest first.
+     */
+    Map<String, Long> getMappedBytesByPath();
+
+    /**
+     * Removes the instrumentation and forgets everything recorded, as if the agent had never been attached.
+     */
+    void detach() throws Exception;
+}
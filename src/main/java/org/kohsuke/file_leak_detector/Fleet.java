@@ -0,0 +1,225 @@
+package org.kohsuke.file_leak_detector;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
+
+/**
+ * Dumps all the local JVMs that match a pattern at once, and reports on them together,
+ * to find the leaking one among many.
+ */
+final class Fleet {
+    /**
+     * {@code VirtualMachine} of the attach API.
+     */
+    private final Class<?> api;
+
+    private final File agentJar;
+    private final int threads;
+
+    /**
+     * One JVM of the fleet.
+     */
+    static final class Jvm {
+        final String pid;
+        final String name;
+        /**
+         * The dump in {@link DumpFormat#JSON}, or null if there's none.
+         */
+        Map<?, ?> dump;
+        /**
+         * Why there's no dump.
+         */
+        String error;
+
+        Jvm(String pid, String name) {
+            this.pid = pid;
+            this.name = name;
+        }
+
+        List<?> getDescriptors() {
+            return dump != null ? (List<?>) dump.get("descriptors") : List.of();
+        }
+    }
+
+    Fleet(Class<?> api, File agentJar, int threads) {
+        this.api = api;
+        this.agentJar = agentJar;
+        this.threads = threads;
+    }
+
+    /**
+     * Lists the local JVMs whose display name, the main class or jar and its arguments, matches the pattern.
+     */
+    List<Jvm> list(Pattern match) throws ReflectiveOperationException {
+        Class<?> descriptor = api.getClassLoader().loadClass("com.sun.tools.attach.VirtualMachineDescriptor");
+        String self = Long.toString(ProcessHandle.current().pid());
+        List<Jvm> jvms = new ArrayList<>();
+        for (Object d : (List<?>) api.getMethod("list").invoke(null)) {
+            String pid = (String) descriptor.getMethod("id").invoke(d);
+            String name = (String) descriptor.getMethod("displayName").invoke(d);
+            if (!pid.equals(self) && match.matcher(name).find()) {
+                jvms.add(new Jvm(pid, name));
+            }
+        }
+        return jvms;
+    }
+
+    /**
+     * Dumps the given JVMs, {@link #threads} at a time.
+     */
+    void dump(List<Jvm> jvms) throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "File leak detector attach");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            List<Callable<Void>> tasks = new ArrayList<>();
+            for (Jvm jvm : jvms) {
+                tasks.add(() -> {
+                    dump(jvm);
+                    return null;
+                });
+            }
+            pool.invokeAll(tasks);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Dumps one JVM, if the agent is installed in it. Loading the agent into the others would only
+     * tell that it isn't, and leave its jar on their class path for good.
+     */
+    private void dump(Jvm jvm) {
+        Path file = null;
+        try {
+            Object vm = api.getMethod("attach", String.class).invoke(null, jvm.pid);
+            try {
+                Properties properties = (Properties) api.getMethod("getSystemProperties").invoke(vm);
+                if (properties.getProperty(AgentMain.INSTALLED_PROPERTY) == null) {
+                    jvm.error = "File leak detector is not installed";
+                    return;
+                }
+                // only readable by us, as the dump shows the files, command lines and stack traces of the JVM
+                file = Files.createTempFile("file-leak-detector", ".json");
+                api.getMethod("loadAgent", String.class, String.class)
+                        .invoke(vm, agentJar.getPath(), "noexit,dump=json,dumpto=" + file.toAbsolutePath());
+            } finally {
+                api.getMethod("detach").invoke(vm);
+            }
+            String dump = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+            if (dump.startsWith("{")) {
+                jvm.dump = (Map<?, ?>) Json.parse(dump);
+            } else {
+                // like "not installed", if it was detached in the meantime
+                jvm.error = dump.trim();
+            }
+        } catch (InvocationTargetException e) {
+            jvm.error = "failed: " + e.getCause();
+        } catch (Exception e) {
+            jvm.error = "failed: " + e;
+        } finally {
+            if (file != null) {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    file.toFile().deleteOnExit();
+                }
+            }
+        }
+    }
+
+    /**
+     * Reports the open descriptors per JVM, per type and per site across all of them.
+     *
+     * @param top
+     *      Number of sites to show.
+     */
+    static void report(List<Jvm> jvms, int top, PrintStream out) {
+        Map<String, Integer> types = new HashMap<>();
+        Map<String, Integer> sites = new HashMap<>();
+        Map<String, Set<String>> siteJvms = new HashMap<>();
+        int dumped = 0;
+        for (Jvm jvm : jvms) {
+            if (jvm.dump != null) {
+                dumped++;
+            }
+            for (Object o : jvm.getDescriptors()) {
+                Map<?, ?> d = (Map<?, ?>) o;
+                types.merge((String) d.get("type"), 1, Integer::sum);
+                String site = getSite((List<?>) d.get("stackTrace"));
+                sites.merge(site, 1, Integer::sum);
+                siteJvms.computeIfAbsent(site, k -> new HashSet<>()).add(jvm.pid);
+            }
+        }
+
+        out.println("Dumped " + dumped + " of " + jvms.size() + " JVMs");
+        out.println();
+        out.println("Open descriptors by JVM:");
+        List<Jvm> sorted = new ArrayList<>(jvms);
+        sorted.sort(Comparator.comparingInt((Jvm j) -> j.getDescriptors().size()).reversed());
+        for (Jvm jvm : sorted) {
+            String status = jvm.dump != null ? jvm.getDescriptors().size() + " open" : jvm.error;
+            out.printf("%8s  %s: %s%n", jvm.pid, jvm.name, status);
+        }
+        out.println();
+        out.println("Open descriptors by type:");
+        print(types, Integer.MAX_VALUE, null, out);
+        out.println();
+        out.println("Top " + top + " sites:");
+        print(sites, top, siteJvms, out);
+    }
+
+    private static void print(Map<String, Integer> counts, int top, Map<String, Set<String>> jvms, PrintStream out) {
+        List<Map.Entry<String, Integer>> sorted = new ArrayList<>(counts.entrySet());
+        sorted.sort(Map.Entry.<String, Integer>comparingByValue().reversed());
+        for (Map.Entry<String, Integer> e : sorted.subList(0, Math.min(top, sorted.size()))) {
+            String in = jvms != null ? " in " + jvms.get(e.getKey()).size() + " JVMs" : "";
+            out.printf("%8d  %s%s%n", e.getValue(), e.getKey(), in);
+        }
+    }
+
+    /**
+     * Returns the first frame outside the JDK, which is where the application opened the descriptor.
+     */
+    static String getSite(List<?> stackTrace) {
+        for (Object o : stackTrace) {
+            String frame = (String) o;
+            int paren = frame.indexOf('(');
+            String method = paren < 0 ? frame : frame.substring(0, paren);
+            // without the class loader and module, as in "app//" or "java.base/"
+            String className = method.substring(method.lastIndexOf('/') + 1);
+            if (!isJdk(className)) {
+                return frame;
+            }
+        }
+        return stackTrace.isEmpty() ? "(unknown)" : (String) stackTrace.get(0);
+    }
+
+    private static boolean isJdk(String className) {
+        return className.startsWith("java.")
+                || className.startsWith("javax.")
+                || className.startsWith("jdk.")
+                || className.startsWith("sun.")
+                || className.startsWith("com.sun.")
+                || className.startsWith("org.kohsuke.file_leak_detector.");
+    }
+}
@@ -0,0 +1,176 @@
+package org.kohsuke.file_leak_detector;
+
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.kohsuke.file_leak_detector.Listener.Record;
+
+/**
+ * Fixed-size ring of the most recent open/close events.
+ *
+ * <p>
+ * The table of open descriptors tells what is open now, but often not why the count
+ * spiked. This ring tells what was opened and closed right before a dump was taken.
+ * The slots are preallocated as one array per field, so recording an event is an atomic
+ * increment and a few array stores, and the oldest events are silently overwritten.
+ * An event only refers to its record by its id, so the ring doesn't keep the stack traces
+ * of closed records reachable; the dump shows where the records that are still open were opened.
+ * A reader may race with a writer overwriting a slot, which at worst shows a mix of two events,
+ * but it skips the slots that were claimed and not written yet.
+ */
+final class FlightRecorder {
+    private final long[] times;
+    private final boolean[] opens;
+    private final Class<?>[] types;
+
+    /**
+     * {@link Record#id} of the record, which ties the open and the close together.
+     */
+    private final long[] ids;
+
+    private final Owner[] owners;
+    private final String[] threadNames;
+
+    /**
+     * One more than the number of the event in each slot, written last, or 0 if the slot was never written.
+     */
+    private final long[] sequences;
+
+    private final AtomicLong next = new AtomicLong();
+
+    /**
+     * @param size
+     *      Number of events to keep, rounded up to a power of two.
+     */
+    FlightRecorder(int size) {
+        int length = Integer.highestOneBit(Math.max(1, size - 1)) << 1;
+        times = new long[length];
+        opens = new boolean[length];
+        types = new Class<?>[length];
+        ids = new long[length];
+        owners = new Owner[length];
+        threadNames = new String[length];
+        sequences = new long[length];
+    }
+
+    /**
+     * Number of events kept.
+     */
+    int size() {
+        return times.length;
+    }
+
+    void opened(Record r) {
+        add(true, r, r.threadName, r.time);
+    }
+
+    void closed(Record r) {
+        add(false, r, Thread.currentThread().getName(), System.currentTimeMillis());
+    }
+
+    private void add(boolean open, Record r, String threadName, long time) {
+        long n = next.getAndIncrement();
+        int i = (int) (n & (times.length - 1));
+        times[i] = time;
+        opens[i] = open;
+        types[i] = r.getClass();
+        ids[i] = r.id;
+        owners[i] = r.owner;
+        threadNames[i] = threadName;
+        sequences[i] = n + 1;
+    }
+
+    /**
+     * Tells if the n-th event was written to its slot, and not overwritten since.
+     */
+    private boolean isWritten(long n) {
+        return sequences[(int) (n & (times.length - 1))] == n + 1;
+    }
+
+    /**
+     * Copies the recorded events, oldest first.
+     */
+    FlightRecorder snapshot() {
+        long end = next.get();
+        long start = Math.max(0, end - times.length);
+        FlightRecorder copy = new FlightRecorder((int) (end - start));
+        for (long i = start; i < end; i++) {
+            int from = (int) (i & (times.length - 1));
+            if (isWritten(i)) {
+                int to = (int) copy.next.getAndIncrement();
+                copy.times[to] = times[from];
+                copy.opens[to] = opens[from];
+                copy.types[to] = types[from];
+                copy.ids[to] = ids[from];
+                copy.owners[to] = owners[from];
+                copy.threadNames[to] = threadNames[from];
+                copy.sequences[to] = to + 1;
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Picks the frame that best describes a site: the first one outside the JDK,
+     * as the intercepted JDK frames are the same for every site.
+     */
+    private static StackTraceElement getCaller(StackTraceElement[] trace, int from) {
+        for (int i = from; i < trace.length; i++) {
+            String module = trace[i].getModuleName();
+            if (module == null || !(module.startsWith("java.") || module.startsWith("jdk."))) {
+                return trace[i];
+            }
+        }
+        return from < trace.length ? trace[from] : null;
+    }
+
+    /**
+     * Writes the events, oldest first.
+     *
+     * @param open
+     *      Records that are still open, to show where they were opened,
+     *      or null to write the events without copying anything, like when out of descriptors.
+     */
+    void dump(Record[] open, PrintWriter pw) {
+        long now = System.currentTimeMillis();
+        long end = next.get();
+        long start = Math.max(0, end - times.length);
+        Map<Long, Record> byId = new HashMap<>();
+        if (open != null) {
+            for (Record r : open) {
+                byId.put(r.id, r);
+            }
+        }
+        Map<Long, Record> shown = new HashMap<>();
+
+        int n = 0;
+        for (long j = start; j < end; j++) {
+            if (isWritten(j)) {
+                n++;
+            }
+        }
+
+        pw.println(n + " recent open/close events");
+        for (long j = start; j < end; j++) {
+            int i = (int) (j & (times.length - 1));
+            if (!isWritten(j)) {
+                continue;
+            }
+            Record r = byId.get(ids[i]);
+            if (r != null) {
+                shown.put(ids[i], r);
+            }
+            pw.println("-" + (now - times[i]) + "ms " + (opens[i] ? "open  " : "close ") + types[i].getSimpleName()
+                    + " #" + ids[i] + " by thread:" + threadNames[i] + " in "
+                    + owners[i].name);
+        }
+        for (Map.Entry<Long, Record> e : shown.entrySet()) {
+            StackTraceElement[] trace = e.getValue().getStackTrace();
+            pw.println("#" + e.getKey() + " is open, opened at "
+                    + getCaller(trace, Record.skipAgentFrames(trace)));
+        }
+        pw.println("----");
+        pw.flush();
+    }
+}
@@ -0,0 +1,149 @@
+package org.kohsuke.file_leak_detector;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Concurrent map that compares its keys by identity and, unless it is strong, holds them weakly.
+ *
+ * <p>
+ * This is what {@link Listener} tracks the open objects in. Unlike a synchronized {@link java.util.WeakHashMap},
+ * it can be looked into without taking a lock, so that closing an object that isn't tracked stays cheap.
+ * It doesn't call {@code equals} or {@code hashCode} of the keys either, which may be overridden by a
+ * subclass of a stream or a socket and should not be called from the middle of opening or closing it.
+ */
+final class IdentityTable<V> {
+    private final ConcurrentHashMap<Object, V> map = new ConcurrentHashMap<>();
+
+    /**
+     * Keys that were collected, or null if the keys are held strongly.
+     */
+    private final ReferenceQueue<Object> collected;
+
+    IdentityTable(boolean weak) {
+        collected = weak ? new ReferenceQueue<>() : null;
+    }
+
+    /**
+     * Returns a table with the same entries, that holds its keys strongly.
+     */
+    IdentityTable<V> toStrong() {
+        IdentityTable<V> strong = new IdentityTable<>(false);
+        map.forEach((k, v) -> {
+            Object key = ((Key) k).get();
+            if (key != null) {
+                strong.map.put(new StrongKey(key), v);
+            }
+        });
+        return strong;
+    }
+
+    V get(Object key) {
+        return map.get(new StrongKey(key));
+    }
+
+    boolean containsKey(Object key) {
+        return !map.isEmpty() && map.containsKey(new StrongKey(key));
+    }
+
+    V put(Object key, V value) {
+        expunge();
+        return map.put(collected != null ? new WeakKey(key, collected) : new StrongKey(key), value);
+    }
+
+    V remove(Object key) {
+        expunge();
+        return map.remove(new StrongKey(key));
+    }
+
+    int size() {
+        expunge();
+        return map.size();
+    }
+
+    boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Values of the keys that weren't collected yet.
+     */
+    Collection<V> values() {
+        expunge();
+        return map.values();
+    }
+
+    private void expunge() {
+        if (collected == null) {
+            return;
+        }
+        for (Object k; (k = collected.poll()) != null; ) {
+            map.remove(k);
+        }
+    }
+
+    private interface Key {
+        Object get();
+    }
+
+    /**
+     * Tells if two keys are the same object, where a collected key is only the same as itself.
+     */
+    private static boolean same(Key a, Object b) {
+        if (a == b) {
+            return true;
+        }
+        Object o = a.get();
+        return o != null && b instanceof Key && ((Key) b).get() == o;
+    }
+
+    /**
+     * Key held strongly, which is also how the keys are looked up.
+     */
+    private static final class StrongKey implements Key {
+        private final Object key;
+
+        StrongKey(Object key) {
+            this.key = key;
+        }
+
+        @Override
+        public Object get() {
+            return key;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return same(this, o);
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(key);
+        }
+    }
+
+    private static final class WeakKey extends WeakReference<Object> implements Key {
+        /**
+         * Kept so that the entry can still be found to be removed once the key is collected.
+         */
+        private final int hash;
+
+        WeakKey(Object key, ReferenceQueue<Object> queue) {
+            super(key, queue);
+            hash = System.identityHashCode(key);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return same(this, o);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
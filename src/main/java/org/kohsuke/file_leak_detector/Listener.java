@@ -4,29 +4,46 @@ import java.io.File;
 import java.io.FileDescriptor;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.RandomAccessFile;
 import java.io.Writer;
+import java.lang.ref.WeakReference;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketAddress;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.AsynchronousServerSocketChannel;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.DatagramChannel;
 import java.nio.channels.FileChannel;
+import java.nio.channels.NetworkChannel;
 import java.nio.channels.Pipe;
 import java.nio.channels.SeekableByteChannel;
 import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.nio.charset.Charset;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.zip.ZipFile;
 
 /**
@@ -41,14 +58,52 @@ public class Listener {
      * Remembers who/where/when opened a file.
      */
     public static class Record {
-        public final Exception stackTrace = new Exception();
+        /**
+         * Where the descriptor was opened.
+         * With {@code sample=N}, this may be shared with other records opened at the same site.
+         */
+        public final Exception stackTrace;
+
         public final String threadName;
         public final long time;
 
+        /**
+         * Site whose stack trace this record shares, or null if it captured its own.
+         */
+        private final Site sharedSite;
+
+        /**
+         * Code that opened the descriptor.
+         */
+        /*package*/ final Owner owner;
+
+        /**
+         * Number of this record among those put in the table, which ties its open and close events together.
+         */
+        /*package*/ long id;
+
         protected Record() {
             // keeping a Thread would potentially leak a thread, so let's just do a name
             this.threadName = Thread.currentThread().getName();
             this.time = System.currentTimeMillis();
+            this.owner = Owner.of();
+
+            // a record recreated for the trace of a close isn't an open at the site, and the excludes given
+            // by the user must be matched against the stack trace of this very open, as they may match
+            // frames below the site; the default one only matches JDK code between the two frames of the site
+            int sample = SAMPLE;
+            Site site = sample > 1 && !tracing && !hasUserExcludes() ? Site.of() : null;
+            Exception shared = site != null ? site.share(sample) : null;
+            if (shared != null) {
+                this.stackTrace = shared;
+                this.sharedSite = site;
+            } else {
+                this.stackTrace = new Trace();
+                this.sharedSite = null;
+                if (site != null) {
+                    site.captured(stackTrace);
+                }
+            }
         }
 
         /**
@@ -63,18 +118,41 @@ public class Listener {
             return this;
         }
 
+        /**
+         * Called when the descriptor was bound to a local address after it was opened.
+         */
+        /*package*/ void bound() {}
+
+        /**
+         * Describes what was opened, like the file name.
+         */
+        /*package*/ String describe() {
+            return getClass().getSimpleName();
+        }
+
+        /**
+         * Returns true if {@link #stackTrace} is that of another open at the same site.
+         */
+        /*package*/ boolean isSampled() {
+            return sharedSite != null;
+        }
+
+        /**
+         * Returns the frames of the intercepted code that opened the descriptor.
+         */
+        /*package*/ StackTraceElement[] getFrames() {
+            StackTraceElement[] trace = getStackTrace();
+            return Arrays.copyOfRange(trace, skipAgentFrames(trace), trace.length);
+        }
+
         public void dump(String prefix, PrintWriter pw) {
-            StackTraceElement[] trace = stackTrace.getStackTrace();
-            int i = 0;
-            // skip until we find the Method.invoke() that called us
-            for (; i < trace.length; i++) {
-                if (trace[i].getClassName().equals("java.lang.reflect.Method")) {
-                    i++;
-                    break;
-                }
+            pw.println(prefix + describe() + " by thread:" + threadName + " on " + format(time));
+            if (sharedSite != null) {
+                pw.println("\t(sampled stack trace of another open at this site, which has seen "
+                        + sharedSite.opens.get() + " opens)");
             }
-            // print the rest
-            for (; i < trace.length; i++) {
+            StackTraceElement[] trace = getStackTrace();
+            for (int i = skipAgentFrames(trace); i < trace.length; i++) {
                 pw.println("\tat " + trace[i]);
             }
             pw.flush();
@@ -85,18 +163,9 @@ public class Listener {
                 return false;
             }
 
-            StackTraceElement[] trace = stackTrace.getStackTrace();
-            int i = 0;
-            // skip until we find the Method.invoke() that called us
-            for (; i < trace.length; i++) {
-                if (trace[i].getClassName().equals("java.lang.reflect.Method")) {
-                    i++;
-                    break;
-                }
-            }
-
-            // check the rest
-            for (; i < trace.length; i++) {
+            StackTraceElement[] trace = getStackTrace();
+            // check the frames of the intercepted code
+            for (int i = skipAgentFrames(trace); i < trace.length; i++) {
                 String t = trace[i].toString();
                 for (String exclude : EXCLUDES) {
                     // skip empty lines
@@ -109,32 +178,48 @@ public class Listener {
             // no matchine exclude found
             return false;
         }
-    }
 
-    /**
-     * Record of opened file.
-     */
-    public static final class FileRecord extends Record {
-        public final File file;
-
-        private FileRecord(File file) {
-            this.file = file;
+        /**
+         * Returns the frames of {@link #stackTrace} without keeping them in it.
+         * A {@link Throwable} keeps its frames once asked for them, which would make every record
+         * that was checked against the excludes or written out by a dump several times bigger
+         * for as long as it is open, like all of them after a "too many open files" dump.
+         */
+        /*package*/ StackTraceElement[] getStackTrace() {
+            return stackTrace instanceof Trace
+                    ? ((Trace) stackTrace).copy().getStackTrace()
+                    : stackTrace.getStackTrace();
         }
 
-        @Override
-        Record recreate() {
-            return new FileRecord(file);
+        /**
+         * Returns the index of the first frame of the intercepted code,
+         * i.e. the one right after the Method.invoke() that called us.
+         */
+        static int skipAgentFrames(StackTraceElement[] trace) {
+            for (int i = 0; i < trace.length; i++) {
+                if (trace[i].getClassName().equals("java.lang.reflect.Method")) {
+                    return i + 1;
+                }
+            }
+            return trace.length;
         }
+    }
 
-        @Override
-        public void dump(String prefix, PrintWriter pw) {
-            pw.println(prefix + file + " by thread:" + threadName + " on " + format(time));
-            super.dump(prefix, pw);
-        }
+    /**
+     * Stack trace of an open, which can be copied before its frames are materialized.
+     */
+    private static final class Trace extends Exception implements Cloneable {
+        private static final long serialVersionUID = 1L;
 
-        @Override
-        public String toString() {
-            return "FileRecord[file=" + file + "]";
+        /**
+         * Returns a copy that shares the captured stack, but that materializes the frames for itself.
+         */
+        Trace copy() {
+            try {
+                return (Trace) clone();
+            } catch (CloneNotSupportedException e) {
+                throw new AssertionError(e);
+            }
         }
     }
 
@@ -151,9 +236,8 @@ public class Listener {
         }
 
         @Override
-        public void dump(String prefix, PrintWriter pw) {
-            pw.println(prefix + path + " by thread:" + threadName + " on " + format(time));
-            super.dump(prefix, pw);
+        String describe() {
+            return path.toString();
         }
 
         @Override
@@ -162,6 +246,30 @@ public class Listener {
         }
     }
 
+    /**
+     * Record of a descriptor with {@code mode=fd} whose file isn't known.
+     */
+    public static final class DescriptorRecord extends Record {
+        /**
+         * Class of the object that holds the descriptor, or {@link FileDescriptor} if there's none.
+         */
+        public final String type;
+
+        private DescriptorRecord(String type) {
+            this.type = type;
+        }
+
+        @Override
+        Record recreate() {
+            return new DescriptorRecord(type);
+        }
+
+        @Override
+        String describe() {
+            return "Descriptor of " + type;
+        }
+    }
+
     public static final class SourceChannelRecord extends Record {
         public final Pipe.SourceChannel source;
 
@@ -175,9 +283,8 @@ public class Listener {
         }
 
         @Override
-        public void dump(String prefix, PrintWriter pw) {
-            pw.println(prefix + "Pipe Source Channel by thread:" + threadName + " on " + format(time));
-            super.dump(prefix, pw);
+        String describe() {
+            return "Pipe Source Channel";
         }
     }
 
@@ -194,9 +301,8 @@ public class Listener {
         }
 
         @Override
-        public void dump(String prefix, PrintWriter pw) {
-            pw.println(prefix + "Pipe Sink Channel by thread:" + threadName + " on " + format(time));
-            super.dump(prefix, pw);
+        String describe() {
+            return "Pipe Sink Channel";
         }
     }
 
@@ -227,15 +333,13 @@ public class Listener {
         }
 
         @Override
-        public void dump(String prefix, PrintWriter ps) {
+        String describe() {
             // best effort at showing where it is/was listening
             String peer = this.peer;
             if (peer == null) {
                 peer = getRemoteAddress(socket);
             }
-
-            ps.println(prefix + "socket to " + peer + " by thread:" + threadName + " on " + format(time));
-            super.dump(prefix, ps);
+            return "socket to " + peer;
         }
 
         @Override
@@ -271,15 +375,13 @@ public class Listener {
         }
 
         @Override
-        public void dump(String prefix, PrintWriter ps) {
+        String describe() {
             // best effort at showing where it is/was listening
             String address = this.address;
             if (address == null) {
                 address = getLocalAddress(socket);
             }
-
-            ps.println(prefix + "server socket at " + address + " by thread:" + threadName + " on " + format(time));
-            super.dump(prefix, ps);
+            return "server socket at " + address;
         }
     }
 
@@ -299,9 +401,303 @@ public class Listener {
         }
 
         @Override
-        public void dump(String prefix, PrintWriter ps) {
-            ps.println(prefix + "socket channel by thread:" + threadName + " on " + format(time));
-            super.dump(prefix, ps);
+        String describe() {
+            return "socket channel";
+        }
+    }
+
+    /**
+     * Record of opened ServerSocketChannel.
+     */
+    public static final class ServerSocketChannelRecord extends Record {
+        public final ServerSocketChannel socket;
+
+        /**
+         * Where it listens, once bound.
+         */
+        private volatile String address;
+
+        private ServerSocketChannelRecord(ServerSocketChannel socket) {
+            this(socket, getLocalAddress(socket));
+        }
+
+        private ServerSocketChannelRecord(ServerSocketChannel socket, String address) {
+            this.socket = socket;
+            this.address = address;
+        }
+
+        @Override
+        Record recreate() {
+            return new ServerSocketChannelRecord(socket, address);
+        }
+
+        @Override
+        void bound() {
+            address = getLocalAddress(socket);
+        }
+
+        @Override
+        String describe() {
+            // best effort at showing where it is/was listening
+            String address = this.address;
+            if (address == null) {
+                address = getLocalAddress(socket);
+            }
+            return address != null ? "server socket channel at " + address : "server socket channel";
+        }
+    }
+
+    /**
+     * Record of opened DatagramChannel, which is also what a {@link java.net.DatagramSocket} opens.
+     */
+    public static final class DatagramChannelRecord extends Record {
+        public final DatagramChannel channel;
+
+        /**
+         * Local address, once bound.
+         */
+        private volatile String address;
+
+        private DatagramChannelRecord(DatagramChannel channel) {
+            this(channel, getLocalAddress(channel));
+        }
+
+        private DatagramChannelRecord(DatagramChannel channel, String address) {
+            this.channel = channel;
+            this.address = address;
+        }
+
+        @Override
+        Record recreate() {
+            return new DatagramChannelRecord(channel, address);
+        }
+
+        @Override
+        void bound() {
+            address = getLocalAddress(channel);
+        }
+
+        @Override
+        String describe() {
+            // datagram channels are also bound implicitly, by sending or connecting
+            String address = this.address;
+            if (address == null) {
+                address = getLocalAddress(channel);
+            }
+            return address != null ? "datagram channel at " + address : "datagram channel";
+        }
+    }
+
+    /**
+     * Returns the local address of a channel, or null if it is not bound or already closed.
+     */
+    private static String getLocalAddress(NetworkChannel channel) {
+        try {
+            SocketAddress la = channel.getLocalAddress();
+            return la != null ? la.toString() : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Record of opened AsynchronousFileChannel.
+     */
+    public static final class AsynchronousFileChannelRecord extends Record {
+        public final Path path;
+
+        private AsynchronousFileChannelRecord(Path path) {
+            this.path = path;
+        }
+
+        @Override
+        Record recreate() {
+            return new AsynchronousFileChannelRecord(path);
+        }
+
+        @Override
+        String describe() {
+            return path.toString();
+        }
+    }
+
+    /**
+     * Record of opened AsynchronousSocketChannel, either connecting or accepted.
+     */
+    public static final class AsynchronousSocketChannelRecord extends Record {
+        public final AsynchronousSocketChannel socket;
+
+        private AsynchronousSocketChannelRecord(AsynchronousSocketChannel socket) {
+            this.socket = socket;
+        }
+
+        @Override
+        Record recreate() {
+            return new AsynchronousSocketChannelRecord(socket);
+        }
+
+        @Override
+        String describe() {
+            // best effort at showing where it is connected to, which fails once it's closed
+            try {
+                SocketAddress ra = socket.getRemoteAddress();
+                if (ra != null) {
+                    return "asynchronous socket channel to " + ra;
+                }
+            } catch (IOException e) {
+                // fall through
+            }
+            return "asynchronous socket channel";
+        }
+    }
+
+    /**
+     * Record of opened AsynchronousServerSocketChannel.
+     */
+    public static final class AsynchronousServerSocketChannelRecord extends Record {
+        public final AsynchronousServerSocketChannel socket;
+
+        private AsynchronousServerSocketChannelRecord(AsynchronousServerSocketChannel socket) {
+            this.socket = socket;
+        }
+
+        @Override
+        Record recreate() {
+            return new AsynchronousServerSocketChannelRecord(socket);
+        }
+
+        @Override
+        String describe() {
+            // best effort at showing where it is listening, which fails once it's closed
+            try {
+                SocketAddress la = socket.getLocalAddress();
+                if (la != null) {
+                    return "asynchronous server socket channel at " + la;
+                }
+            } catch (IOException e) {
+                // fall through
+            }
+            return "asynchronous server socket channel";
+        }
+    }
+
+    /**
+     * Record of a region of a file mapped into memory, which stays mapped after the channel is closed.
+     */
+    public static final class MappingRecord extends Record {
+        /**
+         * File that is mapped, or null if the channel wasn't tracked.
+         */
+        public final String path;
+
+        public final FileChannel.MapMode mode;
+        public final long size;
+
+        private MappingRecord(String path, FileChannel.MapMode mode, long size) {
+            this.path = path;
+            this.mode = mode;
+            this.size = size;
+        }
+
+        @Override
+        String describe() {
+            return (path != null ? path : "file") + " (" + mode + ", " + size + " bytes)";
+        }
+    }
+
+    /**
+     * Record of a child process, which holds the pipes to its stdin, stdout and stderr
+     * until they are closed or the process exits.
+     */
+    public static final class ProcessRecord extends Record {
+        /**
+         * The command line of the process.
+         */
+        public final String command;
+
+        public final long pid;
+
+        /**
+         * Number of pipes the process was started with.
+         */
+        public final int pipes;
+
+        /**
+         * Number of pipes that are still open, guarded by {@link Listener}.
+         */
+        private volatile int openPipes;
+
+        /**
+         * The key of this record in the table, which must not be kept reachable by it.
+         */
+        private final WeakReference<Object> process;
+
+        private ProcessRecord(Object process, String command, long pid, int pipes, int openPipes) {
+            this.process = new WeakReference<>(process);
+            this.command = command;
+            this.pid = pid;
+            this.pipes = pipes;
+            this.openPipes = openPipes;
+        }
+
+        public int getOpenPipes() {
+            return openPipes;
+        }
+
+        @Override
+        Record recreate() {
+            return new ProcessRecord(process.get(), command, pid, pipes, openPipes);
+        }
+
+        @Override
+        String describe() {
+            return "Process " + pid + " (" + command + ") with " + openPipes + " of " + pipes + " pipes open";
+        }
+    }
+
+    /**
+     * Record of a {@link WatchService}, which holds an inotify instance on Linux,
+     * and a background thread that waits for or polls for changes.
+     */
+    public static final class WatchServiceRecord extends Record {
+        /**
+         * Class of the watch service, which tells how it watches.
+         */
+        public final String type;
+
+        /**
+         * Keys registered with the watch service so far, which are forgotten once they are collected.
+         */
+        private final Set<WatchKey> keys;
+
+        private WatchServiceRecord(String type, Set<WatchKey> keys) {
+            this.type = type;
+            this.keys = keys;
+        }
+
+        /**
+         * Returns the number of directories that are being watched.
+         */
+        public int getRegisteredKeys() {
+            int n = 0;
+            synchronized (keys) {
+                for (WatchKey key : keys) {
+                    if (key.isValid()) {
+                        n++;
+                    }
+                }
+            }
+            return n;
+        }
+
+        @Override
+        Record recreate() {
+            return new WatchServiceRecord(type, keys);
+        }
+
+        @Override
+        String describe() {
+            return type + " with " + getRegisteredKeys() + " registered keys";
         }
     }
 
@@ -318,16 +714,16 @@ public class Listener {
         }
 
         @Override
-        public void dump(String prefix, PrintWriter ps) {
-            ps.println(prefix + "selector by thread:" + threadName + " on " + format(time));
-            super.dump(prefix, ps);
+        String describe() {
+            return "selector";
         }
     }
 
     /**
      * Files that are currently open, keyed by the owner object like {@link FileInputStream}.
+     * Changed under the lock, but looked into without it when an object is closed.
      */
-    private static Map<Object, Record> TABLE = new WeakHashMap<>();
+    private static volatile IdentityTable<Record> TABLE = new IdentityTable<>(true);
 
     /**
      * Trace the open/close op
@@ -337,13 +733,23 @@ public class Listener {
     /**
      * Trace the "too many open files" error here
      */
-    public static PrintWriter ERROR = new PrintWriter(new OutputStreamWriter(System.err, Charset.defaultCharset()));
+    public static PrintWriter ERROR = EmergencySink.open(System.err, Charset.defaultCharset());
 
     /**
      * Allows to provide stacktrace-lines which cause the element to be excluded
      */
     public static final List<String> EXCLUDES = new ArrayList<>();
 
+    /**
+     * Excluded by default: the sockets that connect the two ends of a {@link Pipe} on Windows,
+     * which is tracked by itself.
+     */
+    /*package*/ static final String PIPE_LOOPBACK = "sun.nio.ch.PipeImpl$Initializer$LoopbackConnector.run";
+
+    /*package*/ static boolean hasUserExcludes() {
+        return EXCLUDES.size() > (EXCLUDES.contains(PIPE_LOOPBACK) ? 1 : 0);
+    }
+
     /**
      * Tracing may cause additional files to be opened.
      * In such a case, avoid infinite recursion.
@@ -355,6 +761,34 @@ public class Listener {
      */
     public static int THRESHOLD = 999999;
 
+    /**
+     * Capture the stack trace of only one in this many opens at busy sites.
+     */
+    /*package*/ static volatile int SAMPLE = 1;
+
+    /**
+     * Recent open/close events, or null to not keep them.
+     */
+    /*package*/ static FlightRecorder RECORDER = new FlightRecorder(1024);
+
+    /**
+     * {@link Record#id} of the last record put in the table.
+     */
+    private static long LAST_ID;
+
+    /**
+     * Renders the threshold and "too many open files" dumps, so that the thread that
+     * triggered them doesn't have to wait for the whole table to be written out.
+     */
+    private static volatile ExecutorService DUMPER = newDumper();
+
+    /**
+     * Set while a "too many open files" dump is queued or being written.
+     * Every thread that hits the limit reports it, but one dump is enough,
+     * and writing the dump may itself fail to open files.
+     */
+    private static final AtomicBoolean OUT_OF_DESCRIPTORS_DUMP_PENDING = new AtomicBoolean();
+
     /**
      * Is the agent actually transforming the class files?
      */
@@ -368,7 +802,49 @@ public class Listener {
     }
 
     public static synchronized void makeStrong() {
-        TABLE = new LinkedHashMap<>(TABLE);
+        TABLE = TABLE.toStrong();
+    }
+
+    /**
+     * Creates the executor of {@link #DUMPER}, whose thread is only started with the first dump.
+     */
+    private static ExecutorService newDumper() {
+        return Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "File leak detector dump writer");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Runs a task on the thread that writes the dumps, away from the hook and the lock that called for it.
+     */
+    /*package*/ static void later(Runnable task) {
+        try {
+            DUMPER.execute(task);
+        } catch (RejectedExecutionException e) {
+            // detached in the meantime
+        }
+    }
+
+    /**
+     * Forgets all the descriptors and events recorded so far and the options, when the agent is detached.
+     */
+    /*package*/ static synchronized void reset() {
+        TABLE = new IdentityTable<>(true);
+        PIPES = new IdentityTable<>(true);
+        PIPES_BY_DESCRIPTOR = false;
+        RECORDER = new FlightRecorder(1024);
+        EXCLUDES.clear();
+        THRESHOLD = 999999;
+        SAMPLE = 1;
+        OUT_OF_DESCRIPTORS_DUMP_PENDING.set(false);
+        // the dumps already queued are still written, then the thread ends
+        DUMPER.shutdown();
+        DUMPER = newDumper();
+        Site.clear();
+        Owner.clear();
+        Mappings.clear();
     }
 
     /**
@@ -380,10 +856,13 @@ public class Listener {
      *      File being opened.
      */
     public static synchronized void open(Object _this, File f) {
-        if (put(_this, new PathRecord(f.toPath()))) {
-            for (ActivityListener al : ActivityListener.LIST) {
-                al.open(_this, f);
+        Overhead.Measurement m = Overhead.start();
+        try {
+            if (!Overhead.isCountOnly() && put(_this, new PathRecord(f.toPath()))) {
+                ActivityListener.fireOpen(_this, f);
             }
+        } finally {
+            Overhead.end(Overhead.Kind.FILE_OPEN, m);
         }
     }
 
@@ -396,10 +875,13 @@ public class Listener {
      *      Path being opened.
      */
     public static synchronized void open(Object _this, Path p) {
-        if (put(_this, new PathRecord(p))) {
-            for (ActivityListener al : ActivityListener.LIST) {
-                al.open(_this, p);
+        Overhead.Measurement m = Overhead.start();
+        try {
+            if (!Overhead.isCountOnly() && put(_this, new PathRecord(p))) {
+                ActivityListener.fireOpen(_this, p);
             }
+        } finally {
+            Overhead.end(Overhead.Kind.PATH_OPEN, m);
         }
     }
 
@@ -407,6 +889,50 @@ public class Listener {
         open(_this, Paths.get(path));
     }
 
+    /**
+     * Called with {@code mode=fd} when a descriptor of {@code java.io} is registered for cleanup,
+     * which happens once for every file opened by a stream, a {@link RandomAccessFile} or a {@link ZipFile}.
+     *
+     * @param fd
+     *      {@link FileDescriptor} that was opened.
+     */
+    public static synchronized void openDescriptor(Object fd) {
+        if (fd instanceof FileDescriptor && ((FileDescriptor) fd).valid()) {
+            openDescriptor(fd, FileDescriptors.getPath((FileDescriptor) fd));
+        }
+    }
+
+    /**
+     * Called with {@code mode=fd} when a descriptor is opened.
+     *
+     * @param fd
+     *      {@link FileDescriptor} that was opened.
+     * @param path
+     *      File that was opened, or null if it isn't known.
+     */
+    public static synchronized void openDescriptor(Object fd, String path) {
+        Overhead.Measurement m = Overhead.start();
+        try {
+            if (Overhead.isCountOnly()) {
+                return;
+            }
+            if (path != null) {
+                Path p = Paths.get(path);
+                if (put(fd, new PathRecord(p))) {
+                    ActivityListener.fireOpen(fd, p);
+                }
+            } else {
+                Object parent = fd instanceof FileDescriptor ? FileDescriptors.getParent((FileDescriptor) fd) : null;
+                String type = (parent != null ? parent.getClass() : FileDescriptor.class).getSimpleName();
+                if (put(fd, new DescriptorRecord(type))) {
+                    ActivityListener.fireFdOpen(ActivityListener.Event.Kind.FD_OPEN, fd);
+                }
+            }
+        } finally {
+            Overhead.end(Overhead.Kind.PATH_OPEN, m);
+        }
+    }
+
     /**
      * Called when a pipe is opened, e.g. via SelectorProvider
      *
@@ -414,17 +940,21 @@ public class Listener {
      * 		{@link java.nio.channels.spi.SelectorProvider}
      */
     public static synchronized void openPipe(Object _this) {
-        if (_this instanceof Pipe.SourceChannel) {
-            put(_this, new SourceChannelRecord((Pipe.SourceChannel) _this));
-            for (ActivityListener al : ActivityListener.LIST) {
-                al.fd_open(_this);
+        Overhead.Measurement m = Overhead.start();
+        try {
+            if (Overhead.isCountOnly()) {
+                return;
             }
-        }
-        if (_this instanceof Pipe.SinkChannel) {
-            put(_this, new SinkChannelRecord((Pipe.SinkChannel) _this));
-            for (ActivityListener al : ActivityListener.LIST) {
-                al.fd_open(_this);
+            if (_this instanceof Pipe.SourceChannel) {
+                put(_this, new SourceChannelRecord((Pipe.SourceChannel) _this));
+                ActivityListener.fireFdOpen(ActivityListener.Event.Kind.PIPE_OPEN, _this);
             }
+            if (_this instanceof Pipe.SinkChannel) {
+                put(_this, new SinkChannelRecord((Pipe.SinkChannel) _this));
+                ActivityListener.fireFdOpen(ActivityListener.Event.Kind.PIPE_OPEN, _this);
+            }
+        } finally {
+            Overhead.end(Overhead.Kind.PIPE_OPEN, m);
         }
     }
 
@@ -436,16 +966,33 @@ public class Listener {
         open(byteChannel, path);
     }
 
+    /**
+     * Called when an {@link AsynchronousFileChannel} is opened.
+     */
+    public static synchronized void openAsynchronousFileChannel(AsynchronousFileChannel fileChannel, Path path) {
+        Overhead.Measurement m = Overhead.start();
+        try {
+            if (!Overhead.isCountOnly() && put(fileChannel, new AsynchronousFileChannelRecord(path))) {
+                ActivityListener.fireOpen(fileChannel, path);
+            }
+        } finally {
+            Overhead.end(Overhead.Kind.PATH_OPEN, m);
+        }
+    }
+
     public static synchronized void openDirectoryStream(DirectoryStream<?> directoryStream, Path path) {
         open(directoryStream, path);
     }
 
     public static synchronized void openSelector(Object _this) {
-        if (_this instanceof Selector) {
-            put(_this, new SelectorRecord((Selector) _this));
-            for (ActivityListener al : ActivityListener.LIST) {
-                al.fd_open(_this);
+        Overhead.Measurement m = Overhead.start();
+        try {
+            if (!Overhead.isCountOnly() && _this instanceof Selector) {
+                put(_this, new SelectorRecord((Selector) _this));
+                ActivityListener.fireFdOpen(ActivityListener.Event.Kind.SELECTOR_OPEN, _this);
             }
+        } finally {
+            Overhead.end(Overhead.Kind.SELECTOR_OPEN, m);
         }
     }
 
@@ -453,24 +1000,264 @@ public class Listener {
      * Called when a socket is opened.
      */
     public static synchronized void openSocket(Object _this) {
-        if (_this instanceof Socket) {
-            put(_this, new SocketRecord((Socket) _this));
+        Overhead.Measurement m = Overhead.start();
+        try {
+            if (Overhead.isCountOnly()) {
+                return;
+            }
+            if (_this instanceof Socket) {
+                put(_this, new SocketRecord((Socket) _this));
+
+                ActivityListener.fireOpenSocket(_this);
+            } else if (_this instanceof ServerSocket) {
+                put(_this, new ServerSocketRecord((ServerSocket) _this));
+
+                ActivityListener.fireOpenSocket(_this);
+            } else if (_this instanceof SocketChannel) {
+                put(_this, new SocketChannelRecord((SocketChannel) _this));
+
+                ActivityListener.fireOpenSocket(_this);
+            } else if (_this instanceof ServerSocketChannel) {
+                put(_this, new ServerSocketChannelRecord((ServerSocketChannel) _this));
+
+                ActivityListener.fireOpenSocket(_this);
+            } else if (_this instanceof DatagramChannel) {
+                put(_this, new DatagramChannelRecord((DatagramChannel) _this));
 
-            for (ActivityListener al : ActivityListener.LIST) {
-                al.openSocket(_this);
+                ActivityListener.fireOpenSocket(_this);
+            } else if (_this instanceof AsynchronousSocketChannel) {
+                put(_this, new AsynchronousSocketChannelRecord((AsynchronousSocketChannel) _this));
+
+                ActivityListener.fireOpenSocket(_this);
+            } else if (_this instanceof AsynchronousServerSocketChannel) {
+                put(_this, new AsynchronousServerSocketChannelRecord((AsynchronousServerSocketChannel) _this));
+
+                ActivityListener.fireOpenSocket(_this);
             }
-        } else if (_this instanceof ServerSocket) {
-            put(_this, new ServerSocketRecord((ServerSocket) _this));
+        } finally {
+            Overhead.end(Overhead.Kind.SOCKET_OPEN, m);
+        }
+    }
+
+    /**
+     * The object that will unmap the region being mapped on this thread, until it is handed to
+     * {@link #map(Object, Object, FileChannel.MapMode)}.
+     */
+    private static final ThreadLocal<Object> UNMAPPER = new ThreadLocal<>();
 
-            for (ActivityListener al : ActivityListener.LIST) {
-                al.openSocket(_this);
+    /**
+     * Called when the JDK creates the object that will unmap a region being mapped.
+     */
+    public static void openMapping(Object unmapper) {
+        UNMAPPER.set(unmapper);
+    }
+
+    /**
+     * Called when a region of a file was mapped by {@link FileChannel#map(FileChannel.MapMode, long, long)}.
+     *
+     * @param buffer
+     *      {@link MappedByteBuffer} that holds the mapping.
+     * @param channel
+     *      Channel of the file, which the mapping outlives.
+     */
+    public static synchronized void map(Object buffer, Object channel, FileChannel.MapMode mode) {
+        Object unmapper = UNMAPPER.get();
+        UNMAPPER.remove();
+        Overhead.Measurement m = Overhead.start();
+        try {
+            if (Overhead.isCountOnly() || !(buffer instanceof MappedByteBuffer)) {
+                return;
+            }
+            MappedByteBuffer mapped = (MappedByteBuffer) buffer;
+            // an empty buffer doesn't map anything
+            if (mapped.capacity() == 0) {
+                return;
+            }
+            Record opened = TABLE.get(channel);
+            if (opened == null) {
+                // with mode=fd, the descriptor of the channel is tracked rather than the channel
+                FileDescriptor fd = FileDescriptors.getDescriptor(channel);
+                opened = fd != null ? TABLE.get(fd) : null;
+            }
+            MappingRecord r = new MappingRecord(opened != null ? opened.describe() : null, mode, mapped.capacity());
+            Mappings.add(r, mapped, unmapper);
+            if (TRACE != null && !tracing && !Overhead.isTraceSuppressed()) {
+                tracing = true;
+                r.dump("Mapped ", TRACE);
+                tracing = false;
+            }
+        } finally {
+            Overhead.end(Overhead.Kind.MAP, m);
+        }
+    }
+
+    /**
+     * Called when the JDK unmaps a region, explicitly or because its buffer was collected.
+     */
+    public static synchronized void unmap(Object unmapper) {
+        MappingRecord r = Mappings.unmapped(unmapper);
+        if (r != null && TRACE != null && !tracing && !Overhead.isTraceSuppressed()) {
+            tracing = true;
+            r.dump("Unmapped ", TRACE);
+            tracing = false;
+        }
+    }
+
+    /**
+     * Returns the regions of files that are currently mapped into memory.
+     */
+    public static List<MappingRecord> getCurrentMappings() {
+        return Mappings.getLive();
+    }
+
+    /**
+     * Called when a {@link WatchService} is opened.
+     */
+    public static synchronized void openWatchService(Object _this) {
+        Overhead.Measurement m = Overhead.start();
+        try {
+            if (Overhead.isCountOnly() || !(_this instanceof WatchService)) {
+                return;
             }
-        } else if (_this instanceof SocketChannel) {
-            put(_this, new SocketChannelRecord((SocketChannel) _this));
+            Set<WatchKey> keys = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+            if (put(_this, new WatchServiceRecord(_this.getClass().getSimpleName(), keys))) {
+                ActivityListener.fireFdOpen(ActivityListener.Event.Kind.FD_OPEN, _this);
+            }
+        } finally {
+            Overhead.end(Overhead.Kind.WATCH_SERVICE_OPEN, m);
+        }
+    }
+
+    /**
+     * Called when a directory is registered with a {@link WatchService}.
+     *
+     * @param key
+     *      {@link WatchKey} of the directory.
+     * @param watchService
+     *      {@link WatchService} the directory is registered with.
+     */
+    public static synchronized void registerWatchKey(Object key, Object watchService) {
+        Record r = TABLE.get(watchService);
+        if (r instanceof WatchServiceRecord && key instanceof WatchKey) {
+            ((WatchServiceRecord) r).keys.add((WatchKey) key);
+        }
+    }
+
+    /**
+     * Pipes to a child process that were opened on this thread, until they are handed to
+     * {@link #openProcess(Object, String[])}.
+     */
+    private static final ThreadLocal<List<Object>> PROCESS_PIPES = new ThreadLocal<>();
+
+    /**
+     * Pipes of the processes in the table, keyed by the stream that closes the pipe.
+     */
+    private static volatile IdentityTable<ProcessRecord> PIPES = new IdentityTable<>(true);
+
+    /**
+     * Whether the pipes are keyed by their {@link FileDescriptor}, whose close is instrumented unless
+     * files are tracked by their streams, rather than by the stream itself.
+     */
+    /*package*/ static boolean PIPES_BY_DESCRIPTOR = false;
+
+    /**
+     * Called when a pipe to a child process is opened, before the process is started.
+     *
+     * @param stream
+     *      {@link FileInputStream} or {@link FileOutputStream} of the pipe.
+     */
+    public static void openProcessPipe(Object stream) {
+        List<Object> pipes = PROCESS_PIPES.get();
+        if (pipes == null) {
+            pipes = new ArrayList<>(3);
+            PROCESS_PIPES.set(pipes);
+        }
+        pipes.add(PIPES_BY_DESCRIPTOR ? getDescriptor(stream) : stream);
+    }
+
+    /**
+     * Returns the descriptor of the stream of a pipe.
+     */
+    private static FileDescriptor getDescriptor(Object pipe) {
+        if (pipe instanceof FileDescriptor) {
+            return (FileDescriptor) pipe;
+        }
+        try {
+            return pipe instanceof FileInputStream
+                    ? ((FileInputStream) pipe).getFD()
+                    : ((FileOutputStream) pipe).getFD();
+        } catch (IOException e) {
+            // the streams of a pipe always have a descriptor
+            throw new AssertionError(e);
+        }
+    }
 
-            for (ActivityListener al : ActivityListener.LIST) {
-                al.openSocket(_this);
+    /**
+     * Called when a child process is started.
+     * It is tracked if any of its stdin, stdout and stderr is a pipe, rather than redirected.
+     *
+     * @param process
+     *      {@link Process} that was started.
+     * @param cmdarray
+     *      Command line of the process.
+     */
+    public static synchronized void openProcess(Object process, String[] cmdarray) {
+        List<Object> pipes = PROCESS_PIPES.get();
+        PROCESS_PIPES.remove();
+        Overhead.Measurement m = Overhead.start();
+        try {
+            if (Overhead.isCountOnly() || pipes == null || !(process instanceof Process)) {
+                return;
+            }
+            ProcessRecord r = new ProcessRecord(
+                    process, String.join(" ", cmdarray), ((Process) process).pid(), pipes.size(), pipes.size());
+            for (Object pipe : pipes) {
+                PIPES.put(pipe, r);
             }
+            // the JDK closes the pipes of a process that exits before start() returns, and those closes
+            // didn't find them in PIPES; the closes from now on wait for this lock, and find them gone
+            for (Object pipe : pipes) {
+                if (!getDescriptor(pipe).valid() && PIPES.remove(pipe) != null) {
+                    r.openPipes--;
+                }
+            }
+            if (r.openPipes > 0 && put(process, r) && TABLE.get(process) == r) {
+                ActivityListener.fireFdOpen(ActivityListener.Event.Kind.FD_OPEN, process);
+            } else {
+                for (Object pipe : pipes) {
+                    PIPES.remove(pipe);
+                }
+            }
+        } finally {
+            Overhead.end(Overhead.Kind.PIPE_OPEN, m);
+        }
+    }
+
+    /**
+     * Called when a pipe to a child process is closed.
+     *
+     * @return the record of the process if this was its last open pipe, which is then removed from the table.
+     */
+    private static ProcessRecord closeProcessPipe(Object stream) {
+        ProcessRecord r = PIPES.remove(stream);
+        if (r == null || --r.openPipes > 0) {
+            return null;
+        }
+        Object process = r.process.get();
+        if (process == null || TABLE.get(process) != r) {
+            return null;
+        }
+        TABLE.remove(process);
+        return r;
+    }
+
+    /**
+     * Called when a tracked channel is bound, to remember its local address.
+     */
+    public static synchronized void bindSocket(Object _this) {
+        Record r = TABLE.get(_this);
+        if (r != null) {
+            r.bound();
         }
     }
 
@@ -487,7 +1274,7 @@ public class Listener {
     private static synchronized boolean put(Object _this, Record r) {
         // handle excludes
         if (r.exclude()) {
-            if (TRACE != null && !tracing) {
+            if (TRACE != null && !tracing && !Overhead.isTraceSuppressed()) {
                 tracing = true;
                 r.dump("Excluded ", TRACE);
                 tracing = false;
@@ -500,11 +1287,19 @@ public class Listener {
         }
 
         TABLE.put(_this, r);
+        r.id = ++LAST_ID;
+        r.owner.opened.increment();
+        FlightRecorder recorder = RECORDER;
+        if (recorder != null) {
+            recorder.opened(r);
+        }
         if (TABLE.size() > THRESHOLD) {
             THRESHOLD = 999999;
-            dump(ERROR);
+            final Record[] records = snapshot();
+            final FlightRecorder events = recentEvents();
+            later(() -> dump(null, records, events, ERROR));
         }
-        if (TRACE != null && !tracing) {
+        if (TRACE != null && !tracing && !Overhead.isTraceSuppressed()) {
             tracing = true;
             r.dump("Opened ", TRACE);
             tracing = false;
@@ -520,54 +1315,190 @@ public class Listener {
      * @param _this
      *      {@link FileInputStream}, {@link FileOutputStream}, {@link RandomAccessFile}, {@link Socket}, {@link ServerSocket}, or {@link ZipFile}.
      */
-    public static synchronized void close(Object _this) {
-        Record r = TABLE.remove(_this);
-        if (r != null && TRACE != null && !tracing) {
-            // recreate the record so that the dump shows the closing stack trace
-            r = r.recreate();
-            tracing = true;
-            r.dump("Closed ", TRACE);
-            tracing = false;
+    public static void close(Object _this) {
+        // most of the objects closed were never tracked, or were excluded, like every channel closed
+        // through AbstractInterruptibleChannel; unless a listener wants to hear about closes too,
+        // they are done with without taking the lock
+        if (!TABLE.containsKey(_this)
+                && !PIPES.containsKey(_this)
+                && !ActivityListener.hasListeners(ActivityListener.Event.Kind.CLOSE)) {
+            return;
         }
+        closeTracked(_this);
+    }
 
-        for (ActivityListener al : ActivityListener.LIST) {
-            al.close(_this);
+    private static synchronized void closeTracked(Object _this) {
+        Overhead.Measurement m = Overhead.start();
+        try {
+            Record r = TABLE.remove(_this);
+            if (r == null) {
+                r = closeProcessPipe(_this);
+            }
+            if (r != null) {
+                r.owner.closed.increment();
+            }
+            FlightRecorder recorder = RECORDER;
+            if (r != null && recorder != null) {
+                recorder.closed(r);
+            }
+            if (r != null && TRACE != null && !tracing && !Overhead.isTraceSuppressed()) {
+                // recreate the record so that the dump shows the closing stack trace
+                tracing = true;
+                r = r.recreate();
+                r.dump("Closed ", TRACE);
+                tracing = false;
+            }
+
+            ActivityListener.fireClose(_this);
+        } finally {
+            Overhead.end(Overhead.Kind.CLOSE, m);
         }
     }
 
     /**
      * Dumps all files that are currently open.
      */
-    public static synchronized void dump(OutputStream out) {
+    public static void dump(OutputStream out) {
         dump(new OutputStreamWriter(out, Charset.defaultCharset()));
     }
 
-    public static synchronized void dump(Writer w) {
+    public static void dump(Writer w) {
+        dump(null, snapshot(), null, new PrintWriter(w));
+    }
+
+    /**
+     * Dumps the files that are currently open in the given format.
+     */
+    /*package*/ static void dump(DumpFormat format, Writer w) {
+        format.write(snapshot(), new PrintWriter(w));
+    }
+
+    /**
+     * Dumps the most recent open/close events, oldest first.
+     */
+    public static void dumpRecentEvents(Writer w) {
         PrintWriter pw = new PrintWriter(w);
+        FlightRecorder events = recentEvents();
+        if (events == null) {
+            pw.println("Recording of recent events is disabled");
+            pw.flush();
+        } else {
+            events.dump(snapshot(), pw);
+        }
+    }
+
+    /**
+     * Dumps how many descriptors the code of each jar or class loader has open, opened and closed.
+     */
+    public static void dumpOwners(Writer w) {
+        Owner.dump(snapshot(), new PrintWriter(w));
+    }
+
+    /**
+     * Dumps the bytes currently mapped into memory, by file and by the code that mapped them.
+     */
+    public static void dumpMappings(Writer w) {
+        Mappings.dump(new PrintWriter(w));
+    }
+
+    /**
+     * Number of open descriptors, by the jar or class loader of the code that opened them.
+     */
+    /*package*/ static Map<String, Long> getLiveByOwner() {
+        return Owner.getLive(snapshot());
+    }
+
+    /**
+     * Copies the current table, so that it can be rendered without holding the lock.
+     */
+    private static synchronized Record[] snapshot() {
         Record[] records = TABLE.values().toArray(new Record[0]);
+        // the table isn't ordered, so the dumps list them in the order they were opened
+        Arrays.sort(records, (a, b) -> Long.compare(a.time, b.time));
+        return records;
+    }
+
+    /**
+     * Dumps the time and memory spent recording the open/close events.
+     */
+    public static void dumpOverhead(Writer w) {
+        Overhead.dump(new PrintWriter(w));
+    }
 
+    private static FlightRecorder recentEvents() {
+        FlightRecorder recorder = RECORDER;
+        return recorder != null ? recorder.snapshot() : null;
+    }
+
+    /**
+     * @param events
+     *      Recent events to show after the table, if any.
+     */
+    /*package*/ static void dump(String header, Record[] records, FlightRecorder events, PrintWriter pw) {
+        if (pw == null) {
+            return;
+        }
+        if (header != null) {
+            pw.println(header);
+        }
         pw.println(records.length + " descriptors are open");
         int i = 0;
         for (Record r : records) {
             r.dump("#" + (++i) + " ", pw);
         }
         pw.println("----");
+        Owner.dump(records, pw);
+        if (Mappings.getMapped() > 0) {
+            Mappings.dump(pw);
+        }
+        if (events != null) {
+            events.dump(records, pw);
+        }
         pw.flush();
     }
 
     /**
      * Called when the system has too many open files.
      */
-    public static synchronized void outOfDescriptors() {
-        if (ERROR != null && !tracing) {
-            tracing = true;
-            ERROR.println("Too many open files");
-            dump(ERROR);
-            tracing = false;
+    public static void outOfDescriptors() {
+        if (ERROR == null || !OUT_OF_DESCRIPTORS_DUMP_PENDING.compareAndSet(false, true)) {
+            return;
+        }
+        later(() -> {
+            try {
+                dumpOutOfDescriptors(ERROR);
+            } finally {
+                OUT_OF_DESCRIPTORS_DUMP_PENDING.set(false);
+            }
+        });
+    }
+
+    /**
+     * Writes the "too many open files" dump straight from the table and the recent events, as the heap
+     * may be as exhausted as the descriptors. Unlike the other dumps, nothing is copied or sorted, so the
+     * records are in no particular order, and the summaries by owner and of the mappings are left out.
+     * Only the text of the line being written and the stack trace of the record being written are allocated.
+     */
+    private static void dumpOutOfDescriptors(PrintWriter pw) {
+        if (pw == null) {
+            return;
+        }
+        IdentityTable<Record> table = TABLE;
+        pw.println("Too many open files");
+        pw.println(table.size() + " descriptors are open");
+        int i = 0;
+        for (Record r : table.values()) {
+            r.dump("#" + (++i) + " ", pw);
         }
+        pw.println("----");
+        FlightRecorder recorder = RECORDER;
+        if (recorder != null) {
+            recorder.dump(null, pw);
+        }
+        pw.flush();
     }
 
-    private static String format(long time) {
+    /*package*/ static String format(long time) {
         try {
             return new Date(time).toString();
         } catch (Exception e) {
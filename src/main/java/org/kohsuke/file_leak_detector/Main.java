@@ -2,6 +2,7 @@ package org.kohsuke.file_leak_detector;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.PrintStream;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.MalformedURLException;
@@ -9,13 +10,18 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.security.CodeSource;
 import java.security.ProtectionDomain;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.regex.Pattern;
 import org.kohsuke.args4j.Argument;
 import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
 
 /**
  * Entry point for externally attaching agent into another local process.
@@ -23,17 +29,40 @@ import org.kohsuke.args4j.CmdLineParser;
  * @author Kohsuke Kawaguchi
  */
 public class Main {
-    @Argument(index = 0, metaVar = "PID", usage = "Process ID to activate file leak detector", required = true)
+    @Argument(index = 0, metaVar = "PID", usage = "Process ID to activate file leak detector")
     public String pid;
 
     @Argument(index = 1, metaVar = "OPTSTR", usage = "Packed option string of the form key1[=value1],key2[=value2],...")
     public String options;
 
+    @Option(
+            name = "-match",
+            metaVar = "REGEX",
+            usage = "Instead of one PID, dump all the local JVMs whose main class and arguments match REGEX, "
+                    + "and report on them together")
+    public String match;
+
+    @Option(name = "-threads", metaVar = "N", usage = "Number of JVMs to attach to at once with -match")
+    public int threads = 8;
+
+    @Option(name = "-top", metaVar = "N", usage = "Number of sites to report with -match")
+    public int top = 10;
+
     public static void main(String[] args) {
         Main main = new Main();
         CmdLineParser p = new CmdLineParser(main);
         try {
             p.parseArgument(args);
+            if (main.threads < 1) {
+                throw new CmdLineException(p, "-threads must be at least 1");
+            }
+            if (main.match != null) {
+                main.runFleet();
+                return;
+            }
+            if (main.pid == null) {
+                throw new CmdLineException(p, "Specify the PID, or -match");
+            }
             main.run();
         } catch (CmdLineException e) {
             System.err.println(e.getMessage());
@@ -53,6 +82,7 @@ public class Main {
 
     private static void fail(CmdLineParser p) {
         System.err.println("java -jar file-leak-detector.jar PID [OPTSTR]");
+        System.err.println("java -jar file-leak-detector.jar -match REGEX [-threads N] [-top N]");
         p.printUsage(System.err);
         System.err.println("\nOptions:");
         AgentMain.printOptions();
@@ -61,22 +91,75 @@ public class Main {
 
     public void run() throws IOException, ReflectiveOperationException {
         Class<?> api = loadAttachApi();
-
-        System.out.println("Connecting to " + pid);
-        Object vm = api.getMethod("attach", String.class).invoke(null, pid);
+        // only readable by us, as the dump shows the files, command lines and stack traces of the target JVM
+        Path dump = isDump() ? Files.createTempFile("file-leak-detector", ".txt") : null;
+        // keep stdout for the dump
+        PrintStream log = dump != null ? System.err : System.out;
 
         try {
             File agentJar = whichJar(getClass());
-            System.out.println("Activating file leak detector at " + agentJar);
-            // load a specified agent onto the JVM
+            log.println("Connecting to " + pid);
+            log.println("Activating file leak detector at " + agentJar);
             // pass the hidden option to prevent this from killing the target JVM if the options were wrong
-            api.getMethod("loadAgent", String.class, String.class)
-                    .invoke(vm, agentJar.getPath(), options == null ? "noexit" : "noexit," + options);
+            String args = options == null ? "noexit" : "noexit," + options;
+            if (dump != null) {
+                // the agent writes the dump there before loadAgent returns
+                args += ",dumpto=" + dump.toAbsolutePath();
+            }
+            loadAgent(api, pid, agentJar, args);
+
+            if (dump != null) {
+                Files.copy(dump, System.out);
+                System.out.flush();
+            }
+        } finally {
+            if (dump != null) {
+                Files.deleteIfExists(dump);
+            }
+        }
+    }
+
+    /**
+     * Dumps all the JVMs that match {@link #match}, and reports on them together.
+     */
+    public void runFleet() throws IOException, ReflectiveOperationException, InterruptedException {
+        Fleet fleet = new Fleet(loadAttachApi(), whichJar(getClass()), threads);
+        List<Fleet.Jvm> jvms = fleet.list(Pattern.compile(match));
+        System.err.println("Dumping " + jvms.size() + " JVMs matching " + match);
+        fleet.dump(jvms);
+        Fleet.report(jvms, top, System.out);
+    }
+
+    /**
+     * Attaches to the JVM and loads the agent into it.
+     *
+     * @param api
+     *      {@code VirtualMachine} class of the attach API.
+     */
+    static void loadAgent(Class<?> api, String pid, File agentJar, String args) throws ReflectiveOperationException {
+        Object vm = api.getMethod("attach", String.class).invoke(null, pid);
+        try {
+            api.getMethod("loadAgent", String.class, String.class).invoke(vm, agentJar.getPath(), args);
         } finally {
             api.getMethod("detach").invoke(vm);
         }
     }
 
+    /**
+     * Returns true if the options ask for a dump of the open descriptors.
+     */
+    private boolean isDump() {
+        if (options == null) {
+            return false;
+        }
+        for (String t : options.split(",")) {
+            if (t.equals("dump") || t.startsWith("dump=")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Loads the {@code VirtualMachine} class as the entry point to the attach API.
      */
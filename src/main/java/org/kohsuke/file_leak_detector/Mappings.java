@@ -0,0 +1,196 @@
+package org.kohsuke.file_leak_detector;
+
+import java.io.PrintWriter;
+import java.lang.ref.Cleaner;
+import java.nio.MappedByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import org.kohsuke.file_leak_detector.Listener.MappingRecord;
+
+/**
+ * Regions of files mapped into memory by {@code FileChannel.map}.
+ *
+ * <p>
+ * A mapping outlives the channel it was made from, and holds the file and its disk space until the
+ * {@link MappedByteBuffer} is unmapped. That happens when the JDK unmaps it explicitly, which the agent sees
+ * through the {@code Unmapper} of the mapping, or when the buffer becomes unreachable, which it sees through a
+ * {@link Cleaner} of its own.
+ */
+final class Mappings {
+    private static final Set<MappingRecord> LIVE = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Live mappings by the JDK object that unmaps them.
+     */
+    private static final Map<Object, MappingRecord> BY_UNMAPPER = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private static final LongAdder MAPPED = new LongAdder(), MAPPED_BYTES = new LongAdder();
+    private static final LongAdder UNMAPPED = new LongAdder(), UNMAPPED_BYTES = new LongAdder();
+
+    private static Cleaner cleaner;
+
+    /**
+     * Starts tracking a mapping until its buffer is unmapped or collected.
+     *
+     * @param unmapper
+     *      The object the JDK unmaps the buffer with, or null if it wasn't seen.
+     */
+    static void add(MappingRecord r, MappedByteBuffer buffer, Object unmapper) {
+        LIVE.add(r);
+        MAPPED.increment();
+        MAPPED_BYTES.add(r.size);
+        if (unmapper != null) {
+            BY_UNMAPPER.put(unmapper, r);
+        }
+        // the action must not reference the buffer, or it would never become phantom reachable
+        getCleaner().register(buffer, () -> release(r));
+    }
+
+    /**
+     * Called when the JDK unmaps a buffer.
+     *
+     * @return the mapping that was released, or null if it wasn't tracked.
+     */
+    static MappingRecord unmapped(Object unmapper) {
+        MappingRecord r = BY_UNMAPPER.remove(unmapper);
+        return r != null && release(r) ? r : null;
+    }
+
+    private static boolean release(MappingRecord r) {
+        // it is released at most once, by whichever of the unmapper and the cleaner comes first
+        if (!LIVE.remove(r)) {
+            return false;
+        }
+        UNMAPPED.increment();
+        UNMAPPED_BYTES.add(r.size);
+        return true;
+    }
+
+    private static synchronized Cleaner getCleaner() {
+        if (cleaner == null) {
+            cleaner = Cleaner.create();
+        }
+        return cleaner;
+    }
+
+    /**
+     * Forgets all the mappings.
+     */
+    static void clear() {
+        LIVE.clear();
+        BY_UNMAPPER.clear();
+        MAPPED.reset();
+        MAPPED_BYTES.reset();
+        UNMAPPED.reset();
+        UNMAPPED_BYTES.reset();
+    }
+
+    static List<MappingRecord> getLive() {
+        return new ArrayList<>(LIVE);
+    }
+
+    /**
+     * Number of bytes currently mapped.
+     */
+    static long getBytes() {
+        return MAPPED_BYTES.sum() - UNMAPPED_BYTES.sum();
+    }
+
+    /**
+     * Number of regions currently mapped.
+     */
+    static long getRegions() {
+        return MAPPED.sum() - UNMAPPED.sum();
+    }
+
+    /**
+     * Number of regions mapped so far.
+     */
+    static long getMapped() {
+        return MAPPED.sum();
+    }
+
+    /**
+     * Number of regions unmapped so far.
+     */
+    static long getUnmapped() {
+        return UNMAPPED.sum();
+    }
+
+    /**
+     * Bytes currently mapped, by file, the largest first.
+     */
+    static Map<String, Long> getBytesByPath() {
+        Map<String, Long> r = new LinkedHashMap<>();
+        for (Map.Entry<String, long[]> e : group(getLive(), Mappings::getPath)) {
+            r.put(e.getKey(), e.getValue()[0]);
+        }
+        return r;
+    }
+
+    /**
+     * Prints the bytes currently mapped, by file and by the code that mapped them.
+     */
+    static void dump(PrintWriter pw) {
+        List<MappingRecord> live = getLive();
+        pw.println(String.format(
+                Locale.ROOT,
+                "%d regions of %d bytes are mapped, %d mapped and %d unmapped so far",
+                getRegions(),
+                getBytes(),
+                getMapped(),
+                getUnmapped()));
+        dump("file", group(live, Mappings::getPath), pw);
+        dump("site", group(live, Mappings::getSite), pw);
+        pw.flush();
+    }
+
+    private static void dump(String by, List<Map.Entry<String, long[]>> groups, PrintWriter pw) {
+        pw.println(String.format(Locale.ROOT, "%16s %8s  %s", "bytes", "regions", by));
+        for (Map.Entry<String, long[]> e : groups) {
+            pw.println(String.format(Locale.ROOT, "%16d %8d  %s", e.getValue()[0], e.getValue()[1], e.getKey()));
+        }
+    }
+
+    /**
+     * Sums up the bytes and the number of mappings by the given key, the most bytes first.
+     */
+    private static List<Map.Entry<String, long[]>> group(
+            List<MappingRecord> mappings, Function<MappingRecord, String> key) {
+        Map<String, long[]> groups = new LinkedHashMap<>();
+        for (MappingRecord r : mappings) {
+            long[] g = groups.computeIfAbsent(key.apply(r), k -> new long[2]);
+            g[0] += r.size;
+            g[1]++;
+        }
+        List<Map.Entry<String, long[]>> sorted = new ArrayList<>(groups.entrySet());
+        sorted.sort((a, b) -> Long.compare(b.getValue()[0], a.getValue()[0]));
+        return sorted;
+    }
+
+    private static String getPath(MappingRecord r) {
+        return r.path != null ? r.path : "(unknown)";
+    }
+
+    /**
+     * The first caller outside the JDK, which is where the mapping is made in the application.
+     */
+    private static String getSite(MappingRecord r) {
+        StackTraceElement[] frames = r.getFrames();
+        for (StackTraceElement e : frames) {
+            if (!Site.isJdk(e.getClassName())) {
+                return e.toString();
+            }
+        }
+        return frames.length > 0 ? frames[0].toString() : "(unknown)";
+    }
+}
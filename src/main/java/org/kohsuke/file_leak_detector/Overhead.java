@@ -0,0 +1,427 @@
+package org.kohsuke.file_leak_detector;
+
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures the time and memory spent in {@link Listener}, and degrades what the agent does
+ * when that goes over the budget given by the {@code overhead=P%} option.
+ *
+ * <p>
+ * Nothing is measured unless there is a budget, or the MBean or the HTTP server report the measurements.
+ * Then every event is counted, but only one in {@link #MEASURE_ONE_IN} is timed with
+ * {@link System#nanoTime()} and the allocation counter of its thread. Once per
+ * {@link #WINDOW_NANOS}, the average cost of each kind of event times the number of events is
+ * compared to the CPU time of the process. The cost of invoking the hook from the instrumented
+ * JDK code is not included.
+ *
+ * <p>
+ * Over budget, the agent goes through the {@link Level}s one window at a time, and goes back one
+ * level after {@link #CALM_WINDOWS} windows well under the budget.
+ */
+final class Overhead {
+    /**
+     * Kind of event whose cost is measured.
+     */
+    enum Kind {
+        FILE_OPEN,
+        PATH_OPEN,
+        PIPE_OPEN,
+        SELECTOR_OPEN,
+        SOCKET_OPEN,
+        WATCH_SERVICE_OPEN,
+        MAP,
+        CLOSE
+    }
+
+    /**
+     * How much the agent has cut down on what it does to stay within the budget.
+     */
+    enum Level {
+        /**
+         * Everything as configured.
+         */
+        NORMAL,
+        /**
+         * Capture at most one in {@link #DEGRADED_SAMPLE} stack traces at busy sites.
+         * Skipped when {@code excludes=} is given, which turns sampling off.
+         */
+        SAMPLED,
+        /**
+         * In addition, don't write the trace output.
+         */
+        NO_TRACE,
+        /**
+         * Only count the events, don't track the opened descriptors.
+         */
+        COUNT_ONLY
+    }
+
+    static final int MEASURE_ONE_IN = 64;
+
+    static final long WINDOW_NANOS = 1_000_000_000L;
+
+    static final int CALM_WINDOWS = 10;
+
+    static final int DEGRADED_SAMPLE = 64;
+
+    private static final class Stats {
+        final LongAdder events = new LongAdder();
+        final LongAdder measured = new LongAdder();
+        final LongAdder nanos = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+
+        // values at the start of the current window, only touched by the thread evaluating it
+        long windowEvents;
+        long windowMeasured;
+        long windowNanos;
+    }
+
+    /**
+     * Start of one measured event.
+     */
+    static final class Measurement {
+        final long nanos;
+        final long bytes;
+
+        Measurement(long nanos, long bytes) {
+            this.nanos = nanos;
+            this.bytes = bytes;
+        }
+    }
+
+    private static final Stats[] STATS = new Stats[Kind.values().length];
+
+    static {
+        for (int i = 0; i < STATS.length; i++) {
+            STATS[i] = new Stats();
+        }
+    }
+
+    private static final com.sun.management.ThreadMXBean THREADS = getThreadMXBean();
+
+    private static final com.sun.management.OperatingSystemMXBean OS = getOperatingSystemMXBean();
+
+    private static final AtomicLong WINDOW_START = new AtomicLong(System.nanoTime());
+
+    private static long windowCpuNanos = getProcessCpuNanos(System.nanoTime());
+
+    private static int calmWindows;
+
+    /**
+     * Budget in percent of the CPU time of the process, or 0 to only measure.
+     */
+    private static volatile double budget;
+
+    /**
+     * Sample rate given with {@code sample=}, restored when going back to {@link Level#NORMAL}.
+     * {@link Listener#SAMPLE} holds the degraded rate meanwhile, so this is only set from the option.
+     */
+    private static volatile int configuredSample = 1;
+
+    private static volatile double overhead;
+
+    /**
+     * Whether the MBean or the HTTP server report the measurements.
+     */
+    private static volatile boolean reported;
+
+    /**
+     * Whether the hooks are measured, which is when there is a budget or they are reported.
+     */
+    private static volatile boolean measuring;
+
+    static volatile Level level = Level.NORMAL;
+
+    private Overhead() {}
+
+    /**
+     * Sets the budget.
+     *
+     * @param percent
+     *      Budget in percent of the CPU time of the process, or 0 to only measure.
+     */
+    static void configure(double percent) {
+        budget = percent;
+        measuring = percent > 0 || reported;
+    }
+
+    /**
+     * Sets the sample rate given with {@code sample=},
+     * which applies right away unless the level calls for a coarser one.
+     */
+    static void setSample(int sample) {
+        configuredSample = sample;
+        Listener.SAMPLE = getSample(level);
+    }
+
+    private static int getSample(Level l) {
+        return l == Level.NORMAL ? configuredSample : Math.max(configuredSample, DEGRADED_SAMPLE);
+    }
+
+    /**
+     * Starts measuring the hooks for the MBean or the HTTP server, even if there is no budget.
+     */
+    static void report() {
+        reported = true;
+        measuring = true;
+    }
+
+    /**
+     * Forgets the budget, the level and what was measured, when the agent is detached.
+     */
+    static void reset() {
+        budget = 0;
+        reported = false;
+        measuring = false;
+        configuredSample = 1;
+        level = Level.NORMAL;
+        overhead = 0;
+        calmWindows = 0;
+        for (Stats s : STATS) {
+            s.events.reset();
+            s.measured.reset();
+            s.nanos.reset();
+            s.bytes.reset();
+            s.windowEvents = 0;
+            s.windowMeasured = 0;
+            s.windowNanos = 0;
+        }
+        long now = System.nanoTime();
+        WINDOW_START.set(now);
+        windowCpuNanos = getProcessCpuNanos(now);
+    }
+
+    static boolean isTraceSuppressed() {
+        return level.compareTo(Level.NO_TRACE) >= 0;
+    }
+
+    static boolean isCountOnly() {
+        return level == Level.COUNT_ONLY;
+    }
+
+    /**
+     * Called when entering a hook.
+     *
+     * @return
+     *      Start of the measurement to pass to {@link #end(Kind, Measurement)},
+     *      or null if this event is only counted.
+     */
+    static Measurement start() {
+        if (!measuring || ThreadLocalRandom.current().nextInt(MEASURE_ONE_IN) != 0) {
+            return null;
+        }
+        return new Measurement(System.nanoTime(), getAllocatedBytes());
+    }
+
+    /**
+     * Called when leaving a hook.
+     */
+    static void end(Kind kind, Measurement m) {
+        if (!measuring) {
+            return;
+        }
+        Stats s = STATS[kind.ordinal()];
+        s.events.increment();
+        if (m == null) {
+            return;
+        }
+        long now = System.nanoTime();
+        s.nanos.add(now - m.nanos);
+        if (m.bytes >= 0) {
+            s.bytes.add(getAllocatedBytes() - m.bytes);
+        }
+        s.measured.increment();
+
+        long start = WINDOW_START.get();
+        if (now - start >= WINDOW_NANOS && WINDOW_START.compareAndSet(start, now)) {
+            evaluate(now);
+        }
+    }
+
+    /**
+     * Computes the overhead in the window that just ended, and adjusts the {@link Level}.
+     */
+    private static void evaluate(long now) {
+        long cpuNanos = getProcessCpuNanos(now);
+        long elapsedCpuNanos = cpuNanos - windowCpuNanos;
+        windowCpuNanos = cpuNanos;
+
+        double spent = 0;
+        for (Stats s : STATS) {
+            long events = s.events.sum();
+            long measured = s.measured.sum();
+            long nanos = s.nanos.sum();
+            if (measured > s.windowMeasured) {
+                spent += (double) (nanos - s.windowNanos) / (measured - s.windowMeasured) * (events - s.windowEvents);
+            }
+            s.windowEvents = events;
+            s.windowMeasured = measured;
+            s.windowNanos = nanos;
+        }
+        if (elapsedCpuNanos <= 0) {
+            return;
+        }
+        double percent = spent * 100 / elapsedCpuNanos;
+        overhead = percent;
+
+        double budget = Overhead.budget;
+        if (budget <= 0) {
+            return;
+        }
+        Level current = level;
+        if (percent > budget) {
+            calmWindows = 0;
+            if (current != Level.COUNT_ONLY) {
+                setLevel(step(current, 1), percent);
+            }
+        } else if (percent < budget / 2 && current != Level.NORMAL) {
+            if (++calmWindows >= CALM_WINDOWS) {
+                calmWindows = 0;
+                setLevel(step(current, -1), percent);
+            }
+        } else {
+            calmWindows = 0;
+        }
+    }
+
+    /**
+     * Returns the level one step up or down from the given one.
+     * The excludes given by the user are matched against the stack trace of every open, so that
+     * sampling is off with them, and going to {@link Level#SAMPLED} would save nothing.
+     */
+    static Level step(Level from, int by) {
+        Level l = Level.values()[from.ordinal() + by];
+        if (l == Level.SAMPLED && Listener.hasUserExcludes()) {
+            l = Level.values()[l.ordinal() + by];
+        }
+        return l;
+    }
+
+    static void setLevel(Level l, double percent) {
+        Listener.SAMPLE = getSample(l);
+        level = l;
+        // this is called from a hook, which may hold the lock of the listener
+        double budget = Overhead.budget;
+        Listener.later(() -> System.err.println(String.format(
+                Locale.ROOT,
+                "File leak detector overhead was %.2f%% with a budget of %.2f%%, switching to %s",
+                percent,
+                budget,
+                l)));
+    }
+
+    /**
+     * Overhead measured in the last window, in percent of the CPU time of the process.
+     */
+    static double getOverheadPercent() {
+        return overhead;
+    }
+
+    static double getBudgetPercent() {
+        return budget;
+    }
+
+    static int getConfiguredSample() {
+        return configuredSample;
+    }
+
+    static Map<String, Long> getEvents() {
+        Map<String, Long> r = new LinkedHashMap<>();
+        for (Kind k : Kind.values()) {
+            r.put(k.name(), STATS[k.ordinal()].events.sum());
+        }
+        return r;
+    }
+
+    static Map<String, Long> getAverageNanos() {
+        Map<String, Long> r = new LinkedHashMap<>();
+        for (Kind k : Kind.values()) {
+            Stats s = STATS[k.ordinal()];
+            r.put(k.name(), average(s.nanos.sum(), s.measured.sum()));
+        }
+        return r;
+    }
+
+    static Map<String, Long> getAverageBytes() {
+        Map<String, Long> r = new LinkedHashMap<>();
+        for (Kind k : Kind.values()) {
+            Stats s = STATS[k.ordinal()];
+            r.put(k.name(), average(s.bytes.sum(), s.measured.sum()));
+        }
+        return r;
+    }
+
+    static void dump(PrintWriter pw) {
+        pw.println(String.format(
+                Locale.ROOT,
+                "Overhead: %.3f%% of process CPU time, budget: %s, level: %s",
+                overhead,
+                budget > 0 ? String.format(Locale.ROOT, "%.2f%%", budget) : "none",
+                level));
+        pw.println(String.format(Locale.ROOT, "%-14s %12s %12s %10s %10s", "event", "count", "measured", "avg ns", "avg bytes"));
+        for (Kind k : Kind.values()) {
+            Stats s = STATS[k.ordinal()];
+            long measured = s.measured.sum();
+            pw.println(String.format(
+                    Locale.ROOT,
+                    "%-14s %12d %12d %10d %10d",
+                    k,
+                    s.events.sum(),
+                    measured,
+                    average(s.nanos.sum(), measured),
+                    average(s.bytes.sum(), measured)));
+        }
+        pw.flush();
+    }
+
+    private static long average(long total, long count) {
+        return count > 0 ? total / count : 0;
+    }
+
+    private static long getAllocatedBytes() {
+        return THREADS != null ? THREADS.getCurrentThreadAllocatedBytes() : -1;
+    }
+
+    /**
+     * CPU time used by the process so far, or if that's not available,
+     * the wall clock time as if all processors were busy.
+     */
+    private static long getProcessCpuNanos(long now) {
+        long t = OS != null ? OS.getProcessCpuTime() : -1;
+        return t >= 0 ? t : now * Runtime.getRuntime().availableProcessors();
+    }
+
+    private static com.sun.management.ThreadMXBean getThreadMXBean() {
+        try {
+            ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            if (bean instanceof com.sun.management.ThreadMXBean
+                    && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemoryEnabled()) {
+                return (com.sun.management.ThreadMXBean) bean;
+            }
+        } catch (LinkageError | UnsupportedOperationException e) {
+            // not available on this JVM
+        }
+        return null;
+    }
+
+    private static com.sun.management.OperatingSystemMXBean getOperatingSystemMXBean() {
+        try {
+            OperatingSystemMXBean bean = ManagementFactory.getOperatingSystemMXBean();
+            if (bean instanceof com.sun.management.OperatingSystemMXBean) {
+                return (com.sun.management.OperatingSystemMXBean) bean;
+            }
+        } catch (LinkageError e) {
+            // not available on this JVM
+        }
+        return null;
+    }
+}
@@ -0,0 +1,171 @@
+package org.kohsuke.file_leak_detector;
+
+import java.io.PrintWriter;
+import java.lang.StackWalker.StackFrame;
+import java.net.URL;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import org.kohsuke.file_leak_detector.Listener.Record;
+
+/**
+ * Code that opens descriptors, like a Jenkins plugin, to tell which one is leaking.
+ *
+ * <p>
+ * The owner of a record is the jar, or if that is unknown the class loader, of the first class
+ * on the stack that is neither part of the JDK nor of the agent. It is looked up once per class.
+ */
+final class Owner {
+    private static final StackWalker WALKER = StackWalker.getInstance(StackWalker.Option.RETAIN_CLASS_REFERENCE);
+
+    private static final ClassLoader PLATFORM = ClassLoader.getPlatformClassLoader();
+
+    private static final Map<String, Owner> OWNERS = new ConcurrentHashMap<>();
+
+    /**
+     * Owner of each class, replaced along with {@link #OWNERS} so that it doesn't hand out forgotten owners.
+     */
+    private static volatile ClassValue<Owner> BY_CLASS = new ByClass();
+
+    final String name;
+
+    /**
+     * Number of descriptors this owner opened and closed so far.
+     */
+    final LongAdder opened = new LongAdder(), closed = new LongAdder();
+
+    private Owner(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Forgets all the owners.
+     */
+    static void clear() {
+        BY_CLASS = new ByClass();
+        OWNERS.clear();
+    }
+
+    /**
+     * Finds the owner of the open that is being recorded.
+     */
+    static Owner of() {
+        Class<?> c = WALKER.walk(frames -> frames.map(StackFrame::getDeclaringClass)
+                .filter(Owner::isApplication)
+                .findFirst()
+                .orElse(null));
+        return c != null ? BY_CLASS.get(c) : named("JDK");
+    }
+
+    private static Owner named(String name) {
+        return OWNERS.computeIfAbsent(name, Owner::new);
+    }
+
+    private static boolean isApplication(Class<?> c) {
+        ClassLoader cl = c.getClassLoader();
+        return cl != null && cl != PLATFORM && c != Owner.class && !c.getName().startsWith(Listener.class.getName());
+    }
+
+    /**
+     * Names the owner of a class by its jar, or by its class loader.
+     */
+    private static String describe(Class<?> c) {
+        try {
+            CodeSource cs = c.getProtectionDomain().getCodeSource();
+            URL location = cs != null ? cs.getLocation() : null;
+            if (location != null) {
+                return location.toString();
+            }
+        } catch (SecurityException e) {
+            // fall back to the class loader
+        }
+        ClassLoader cl = c.getClassLoader();
+        if (cl.getName() != null) {
+            return cl.getName();
+        }
+        return cl.getClass().getName() + '@' + Integer.toHexString(System.identityHashCode(cl));
+    }
+
+    /**
+     * Counts the descriptors in the table by owner.
+     */
+    private static Map<Owner, Long> live(Record[] records) {
+        Map<Owner, Long> live = new HashMap<>();
+        for (Record r : records) {
+            live.merge(r.owner, 1L, Long::sum);
+        }
+        return live;
+    }
+
+    /**
+     * Returns all the owners, the one with the most open descriptors first.
+     */
+    private static List<Owner> sorted(Map<Owner, Long> live) {
+        List<Owner> owners = new ArrayList<>(OWNERS.values());
+        owners.sort((a, b) -> {
+            int c = Long.compare(live.getOrDefault(b, 0L), live.getOrDefault(a, 0L));
+            return c != 0 ? c : Long.compare(b.opened.sum(), a.opened.sum());
+        });
+        return owners;
+    }
+
+    /**
+     * Number of open descriptors, by owner.
+     */
+    static Map<String, Long> getLive(Record[] records) {
+        Map<Owner, Long> live = live(records);
+        Map<String, Long> r = new LinkedHashMap<>();
+        for (Owner o : sorted(live)) {
+            r.put(o.name, live.getOrDefault(o, 0L));
+        }
+        return r;
+    }
+
+    static Map<String, Long> getOpened() {
+        Map<String, Long> r = new LinkedHashMap<>();
+        for (Owner o : OWNERS.values()) {
+            r.put(o.name, o.opened.sum());
+        }
+        return r;
+    }
+
+    static Map<String, Long> getClosed() {
+        Map<String, Long> r = new LinkedHashMap<>();
+        for (Owner o : OWNERS.values()) {
+            r.put(o.name, o.closed.sum());
+        }
+        return r;
+    }
+
+    /**
+     * Prints how many descriptors each owner has open, opened and closed.
+     */
+    static void dump(Record[] records, PrintWriter pw) {
+        Map<Owner, Long> live = live(records);
+        pw.println("Descriptors by owner");
+        pw.println(String.format(Locale.ROOT, "%10s %12s %12s  %s", "open", "opened", "closed", "owner"));
+        for (Owner o : sorted(live)) {
+            pw.println(String.format(
+                    Locale.ROOT,
+                    "%10d %12d %12d  %s",
+                    live.getOrDefault(o, 0L),
+                    o.opened.sum(),
+                    o.closed.sum(),
+                    o.name));
+        }
+        pw.flush();
+    }
+
+    private static final class ByClass extends ClassValue<Owner> {
+        @Override
+        protected Owner computeValue(Class<?> type) {
+            return named(describe(type));
+        }
+    }
+}
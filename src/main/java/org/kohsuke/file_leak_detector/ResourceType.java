@@ -0,0 +1,79 @@
+package org.kohsuke.file_leak_detector;
+
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Categories of resources that the agent can track, chosen with {@code types=...}.
+ *
+ * <p>
+ * The JDK classes of the categories that aren't chosen are left alone, so their open and close calls
+ * don't pay for any hook at all.
+ */
+public enum ResourceType {
+    /**
+     * Streams, {@link java.io.RandomAccessFile}, zip files and file channels,
+     * or their descriptors with {@code mode=fd}.
+     */
+    FILES,
+    /**
+     * Directory streams of {@link java.nio.file.Files#newDirectoryStream}.
+     */
+    DIRSTREAMS,
+    /**
+     * Pipes of {@link java.nio.channels.Pipe}.
+     */
+    PIPES,
+    /**
+     * Selectors, which hold an epoll instance or a pipe of their own.
+     */
+    SELECTORS,
+    /**
+     * Sockets and socket channels, including the datagram and asynchronous ones.
+     */
+    SOCKETS,
+    /**
+     * Regions of files mapped into memory.
+     * The file of a mapping is only known when {@link #FILES} are tracked too.
+     */
+    MAPPINGS,
+    /**
+     * Child processes with the pipes to their standard streams.
+     */
+    PROCESSES,
+    /**
+     * Watch services with the keys registered with them.
+     */
+    WATCHSERVICES;
+
+    /**
+     * Returns the type of the given name in any case, or null if there is no such type.
+     */
+    static ResourceType find(String name) {
+        for (ResourceType t : values()) {
+            if (t.name().equals(name.toUpperCase(Locale.ROOT))) {
+                return t;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Parses a list of types separated by {@code +}, which unlike commas doesn't clash with the other options.
+     *
+     * @throws IllegalArgumentException
+     *      if one of them isn't a type.
+     */
+    static Set<ResourceType> parse(String names) {
+        Set<ResourceType> types = EnumSet.noneOf(ResourceType.class);
+        for (String name : names.split("\\+")) {
+            ResourceType t = find(name.trim());
+            if (t == null) {
+                throw new IllegalArgumentException("Unknown type: " + name);
+            }
+            types.add(t);
+        }
+        return types;
+    }
+}
@@ -0,0 +1,95 @@
+package org.kohsuke.file_leak_detector;
+
+import java.lang.StackWalker.StackFrame;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Place in the code that opens descriptors, used to sample stack traces.
+ *
+ * <p>
+ * A site is identified by the intercepted JDK method and the first caller outside the JDK,
+ * which can be found by walking only the top of the stack. The first {@code N} opens at a site
+ * (with {@code sample=N}) capture a full stack trace, so that rarely used code paths are fully
+ * visible. Beyond that, only every {@code N}th open does, and the others share the stack trace
+ * of an earlier open at the same site.
+ */
+final class Site {
+    private static final StackWalker WALKER = StackWalker.getInstance();
+
+    private static final Map<String, Site> SITES = new ConcurrentHashMap<>();
+
+    /**
+     * Number of opens seen at this site.
+     */
+    final AtomicLong opens = new AtomicLong();
+
+    /**
+     * Stack trace captured by a recent open at this site.
+     */
+    private volatile Exception stackTrace;
+
+    /**
+     * Forgets all the sites.
+     */
+    static void clear() {
+        SITES.clear();
+    }
+
+    /**
+     * Finds the site of the open that is being recorded.
+     */
+    static Site of() {
+        return SITES.computeIfAbsent(WALKER.walk(Site::key), k -> new Site());
+    }
+
+    /**
+     * Counts an open at this site.
+     *
+     * @param sample
+     *      Capture one in this many stack traces at busy sites.
+     * @return
+     *      The stack trace of an earlier open to use for this one,
+     *      or null if this open needs to capture its own and report it to {@link #captured(Exception)}.
+     */
+    Exception share(int sample) {
+        long n = opens.incrementAndGet();
+        if (n <= sample || n % sample == 0) {
+            return null;
+        }
+        return stackTrace;
+    }
+
+    void captured(Exception stackTrace) {
+        this.stackTrace = stackTrace;
+    }
+
+    private static String key(Stream<StackFrame> frames) {
+        StringBuilder key = new StringBuilder();
+        frames.dropWhile(f -> isAgent(f.getClassName()))
+                // the intercepted method, then the first caller outside the JDK
+                .filter(f -> key.length() == 0 || !isJdk(f.getClassName()))
+                .limit(2)
+                .forEach(f -> key.append(f.getClassName())
+                        .append('.')
+                        .append(f.getMethodName())
+                        .append('@')
+                        .append(f.getByteCodeIndex())
+                        .append(' '));
+        return key.toString();
+    }
+
+    private static boolean isAgent(String className) {
+        return className.equals(Site.class.getName()) || className.startsWith(Listener.class.getName());
+    }
+
+    static boolean isJdk(String className) {
+        return className.startsWith("java.")
+                || className.startsWith("javax.")
+                || className.startsWith("jdk.")
+                || className.startsWith("sun.")
+                || className.startsWith("com.sun.");
+    }
+}
@@ -0,0 +1,109 @@
+package org.kohsuke.file_leak_detector.transform;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * Answers {@link org.objectweb.asm.ClassWriter#getCommonSuperClass} from the class files,
+ * so that computing frames doesn't load classes while a JDK class is being transformed.
+ *
+ * <p>
+ * Only JDK classes are transformed, so the class files are cached by their name alone.
+ */
+final class ClassHierarchy {
+    private static final String OBJECT = "java/lang/Object";
+
+    private final ConcurrentMap<String, Info> infos = new ConcurrentHashMap<>();
+
+    private static final class Info {
+        /**
+         * Null for {@code java/lang/Object}.
+         */
+        final String superName;
+
+        final boolean isInterface;
+
+        Info(String superName, boolean isInterface) {
+            this.superName = superName;
+            this.isInterface = isInterface;
+        }
+    }
+
+    /**
+     * Returns the internal name of the closest common super class of the two given classes,
+     * or null if the class file of either of them, or of one of their super classes, can't be found.
+     *
+     * @param loader
+     *      The class loader of the class being transformed, null for the bootstrap class loader.
+     */
+    String getCommonSuperClass(ClassLoader loader, String type1, String type2) {
+        if (type1.equals(type2)) {
+            return type1;
+        }
+        Info info1 = getInfo(loader, type1);
+        Info info2 = getInfo(loader, type2);
+        if (info1 == null || info2 == null) {
+            return null;
+        }
+        if (info1.isInterface || info2.isInterface) {
+            return OBJECT;
+        }
+
+        Set<String> ancestors = new HashSet<>();
+        for (String t = type1; t != null; t = getSuperName(loader, t)) {
+            if (t.isEmpty()) {
+                return null;
+            }
+            ancestors.add(t);
+        }
+        for (String t = type2; t != null; t = getSuperName(loader, t)) {
+            if (t.isEmpty()) {
+                return null;
+            }
+            if (ancestors.contains(t)) {
+                return t;
+            }
+        }
+        return OBJECT;
+    }
+
+    /**
+     * Returns the super class, null for {@code java/lang/Object}, or "" if it's not known.
+     */
+    private String getSuperName(ClassLoader loader, String type) {
+        Info info = getInfo(loader, type);
+        return info == null ? "" : info.superName;
+    }
+
+    private Info getInfo(ClassLoader loader, String type) {
+        Info info = infos.get(type);
+        if (info == null) {
+            info = read(loader, type);
+            if (info != null) {
+                infos.putIfAbsent(type, info);
+            }
+        }
+        return info;
+    }
+
+    private static Info read(ClassLoader loader, String type) {
+        String resource = type + ".class";
+        try (InputStream in = loader == null
+                ? ClassLoader.getSystemResourceAsStream(resource)
+                : loader.getResourceAsStream(resource)) {
+            if (in == null) {
+                return null;
+            }
+            ClassReader cr = new ClassReader(in);
+            return new Info(cr.getSuperName(), (cr.getAccess() & Opcodes.ACC_INTERFACE) != 0);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package org.kohsuke.file_leak_detector.transform;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Keeps transformed class files on disk, so that later JVMs can skip ASM altogether.
+ *
+ * <p>
+ * A class file is keyed by the name of the class and a hash of the {@code java.vm.version},
+ * the version of the agent and the original class file, so that a different JDK or agent
+ * never picks up bytes that were transformed for another one.
+ * Files are written to a temporary file first and moved into place, so that JVMs sharing
+ * the directory never see a partially written class file.
+ */
+public final class TransformCache {
+    private final Path dir;
+    private final byte[] prefix;
+
+    /**
+     * @param dir
+     *      Directory to keep the class files in, created if it doesn't exist.
+     * @param agentVersion
+     *      Identifies the build of the agent that does the transformation.
+     */
+    public TransformCache(Path dir, String agentVersion) throws IOException {
+        this.dir = Files.createDirectories(dir);
+        this.prefix = (System.getProperty("java.vm.version") + '\0' + agentVersion + '\0')
+                .getBytes(StandardCharsets.UTF_8);
+        // loaded now rather than in the middle of transforming a class
+        newDigest();
+    }
+
+    /**
+     * Returns the cached transformation of the given class file, or null if there's none.
+     */
+    byte[] get(String className, byte[] classfileBuffer) {
+        try {
+            byte[] data = Files.readAllBytes(getFile(className, classfileBuffer));
+            return isClassFile(data) ? data : null;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            System.err.println("Failed to read the cached transformation of " + className + ": " + e);
+            return null;
+        }
+    }
+
+    void put(String className, byte[] classfileBuffer, byte[] transformed) {
+        Path tmp = null;
+        try {
+            Path file = getFile(className, classfileBuffer);
+            tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+            Files.write(tmp, transformed);
+            try {
+                Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+            tmp = null;
+        } catch (IOException e) {
+            System.err.println("Failed to cache the transformation of " + className + ": " + e);
+        } finally {
+            if (tmp != null) {
+                try {
+                    Files.deleteIfExists(tmp);
+                } catch (IOException e) {
+                    // ignored
+                }
+            }
+        }
+    }
+
+    private Path getFile(String className, byte[] classfileBuffer) {
+        MessageDigest digest = newDigest();
+        digest.update(prefix);
+        digest.update(classfileBuffer);
+        StringBuilder name = new StringBuilder(className.replace('/', '.')).append('-');
+        for (byte b : digest.digest()) {
+            name.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return dir.resolve(name.append(".class").toString());
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static boolean isClassFile(byte[] data) {
+        return data.length > 4
+                && (data[0] & 0xFF) == 0xCA
+                && (data[1] & 0xFF) == 0xFE
+                && (data[2] & 0xFF) == 0xBA
+                && (data[3] & 0xFF) == 0xBE;
+    }
+}
@@ -18,10 +18,23 @@ public class TransformerImpl implements ClassFileTransformer {
 
     private final Map<String, ClassTransformSpec> specs = new HashMap<>();
 
+    private final ClassHierarchy hierarchy = new ClassHierarchy();
+
+    private final TransformCache cache;
+
     public TransformerImpl(Collection<ClassTransformSpec> specs) {
+        this(specs, null);
+    }
+
+    /**
+     * @param cache
+     *      Where to keep the transformed class files across JVMs, or null not to.
+     */
+    public TransformerImpl(Collection<ClassTransformSpec> specs, TransformCache cache) {
         for (ClassTransformSpec spec : specs) {
             this.specs.put(spec.name, spec);
         }
+        this.cache = cache;
     }
 
     @Override
@@ -31,17 +44,36 @@ public class TransformerImpl implements ClassFileTransformer {
             Class<?> classBeingRedefined,
             ProtectionDomain protectionDomain,
             byte[] classfileBuffer) {
-        return transform(className, classfileBuffer);
+        return transform(loader, className, classfileBuffer);
     }
 
     public byte[] transform(String className, byte[] classfileBuffer) {
+        return transform(null, className, classfileBuffer);
+    }
+
+    private byte[] transform(final ClassLoader loader, String className, byte[] classfileBuffer) {
         final ClassTransformSpec cs = specs.get(className);
         if (cs == null) {
             return classfileBuffer;
         }
 
+        if (cache != null) {
+            byte[] cached = cache.get(className, classfileBuffer);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
         ClassReader cr = new ClassReader(classfileBuffer);
-        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+        // passing the reader lets the methods we don't touch be copied as they are, frames and all
+        ClassWriter cw = new ClassWriter(cr, ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS) {
+            @Override
+            protected String getCommonSuperClass(String type1, String type2) {
+                String common = hierarchy.getCommonSuperClass(loader, type1, type2);
+                // the default loads the classes, which we only resort to if a class file can't be found
+                return common != null ? common : super.getCommonSuperClass(type1, type2);
+            }
+        };
         cr.accept(
                 new ClassVisitor(Opcodes.ASM9, cw) {
                     @Override
@@ -63,6 +95,10 @@ public class TransformerImpl implements ClassFileTransformer {
                 ClassReader.SKIP_FRAMES);
 
         //        System.out.println("Transforming "+className);
-        return cw.toByteArray();
+        byte[] transformed = cw.toByteArray();
+        if (cache != null) {
+            cache.put(className, classfileBuffer, transformed);
+        }
+        return transformed;
     }
 }
@@ -0,0 +1,71 @@
+package org.kohsuke.file_leak_detector;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.kohsuke.file_leak_detector.ActivityListener.Event;
+
+public class ActivityListenerTest {
+    private final List<String> calls = new ArrayList<>();
+
+    private final ActivityListener closes = new ActivityListener() {
+        @Override
+        public Set<Event.Kind> getEventKinds() {
+            return EnumSet.of(Event.Kind.CLOSE);
+        }
+
+        @Override
+        public void open(Object obj, Path file) {
+            calls.add("open");
+        }
+
+        @Override
+        public void close(Object obj) {
+            calls.add("close");
+        }
+    };
+
+    @AfterEach
+    public void removeListeners() {
+        ActivityListener.LIST.clear();
+    }
+
+    @Test
+    public void listenersOnlyGetTheirKindsOfEvents() {
+        ActivityListener.LIST.add(closes);
+        assertTrue(ActivityListener.hasListeners(Event.Kind.CLOSE));
+        assertFalse(ActivityListener.hasListeners(Event.Kind.PATH_OPEN));
+
+        Object o = new Object();
+        Listener.open(o, Paths.get("subscriptions.txt"));
+        Listener.close(o);
+        // closing an object that isn't tracked is reported too
+        Listener.close(new Object());
+        assertEquals(List.of("close", "close"), calls);
+    }
+
+    @Test
+    public void changesToTheListAreSeen() {
+        ActivityListener.LIST.addAll(List.of(closes, new ActivityListener() {}));
+        assertTrue(ActivityListener.hasListeners(Event.Kind.PATH_OPEN));
+
+        ActivityListener.LIST.removeIf(al -> al != closes);
+        assertFalse(ActivityListener.hasListeners(Event.Kind.PATH_OPEN));
+        assertThrows(UnsupportedOperationException.class, () -> ActivityListener.LIST.subList(0, 1).clear());
+
+        ActivityListener.LIST.remove(closes);
+        assertFalse(ActivityListener.hasListeners(Event.Kind.CLOSE));
+        assertEquals(Collections.emptyList(), ActivityListener.LIST);
+    }
+}
@@ -1,11 +1,15 @@
 package org.kohsuke.file_leak_detector;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyBoolean;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
@@ -14,24 +18,66 @@ import java.lang.instrument.Instrumentation;
 import java.lang.instrument.UnmodifiableClassException;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.file_leak_detector.transform.ClassTransformSpec;
 import org.mockito.stubbing.Answer;
 
 public class AgentMainTest {
+    @AfterEach
+    public void detach() throws Exception {
+        // attaching again would only reconfigure the agent installed by the previous test
+        AgentMain.detach();
+    }
+
     @Test
     public void noDuplicateSpecs() {
-        final List<ClassTransformSpec> specs = AgentMain.createSpec();
+        for (boolean descriptors : new boolean[] {false, true}) {
+            final List<ClassTransformSpec> specs = AgentMain.createSpec(descriptors);
 
-        Set<String> seenClasses = new HashSet<>();
-        for (ClassTransformSpec spec : specs) {
-            assertTrue(seenClasses.add(spec.name), "Did have duplicate spec for class " + spec.name);
+            Set<String> seenClasses = new HashSet<>();
+            for (ClassTransformSpec spec : specs) {
+                assertTrue(seenClasses.add(spec.name), "Did have duplicate spec for class " + spec.name);
+            }
         }
     }
 
+    @Test
+    public void specsOfTypes() {
+        Set<String> all = names(AgentMain.createSpec());
+        for (ResourceType type : ResourceType.values()) {
+            Set<String> names = names(AgentMain.createSpec(false, EnumSet.of(type)));
+            assertFalse(names.isEmpty(), "No classes are instrumented for " + type);
+            assertTrue(all.containsAll(names), "Classes of " + type + " are not instrumented by default: " + names);
+        }
+        assertEquals(
+                Collections.singleton("java/nio/channels/spi/AbstractSelector"),
+                names(AgentMain.createSpec(false, EnumSet.of(ResourceType.SELECTORS))));
+        // the channels of sockets are closed through their base class
+        assertTrue(names(AgentMain.createSpec(true, EnumSet.of(ResourceType.SOCKETS)))
+                .contains("java/nio/channels/spi/AbstractInterruptibleChannel"));
+        assertTrue(AgentMain.createSpec(true, EnumSet.noneOf(ResourceType.class)).isEmpty());
+    }
+
+    @Test
+    public void parseTypes() {
+        assertEquals(EnumSet.of(ResourceType.FILES, ResourceType.SOCKETS), ResourceType.parse("files+Sockets"));
+        assertEquals(ResourceType.WATCHSERVICES, ResourceType.find("watchservices"));
+        assertNull(ResourceType.find("trace"));
+        assertThrows(IllegalArgumentException.class, () -> ResourceType.parse("files+ttys"));
+    }
+
     @Test
     public void testPreMain() throws Exception {
         final Set<String> seenClasses = new HashSet<>();
@@ -52,6 +98,25 @@ public class AgentMainTest {
         verifyInstrumentation(instrumentation, seenClasses);
     }
 
+    @Test
+    public void testPreMainTypes() throws Exception {
+        final Set<String> seenClasses = new HashSet<>();
+        final Instrumentation instrumentation = prepare(
+                seenClasses, AgentMain.createSpec(false, EnumSet.of(ResourceType.SOCKETS, ResourceType.SELECTORS)));
+
+        AgentMain.premain("types=sockets+selectors,threshold=" + Listener.THRESHOLD, instrumentation);
+
+        verifyInstrumentation(instrumentation, seenClasses);
+    }
+
+    @Test
+    public void testPreMainTypesEndAtTheComma() throws Exception {
+        final Instrumentation instrumentation = prepare(new HashSet<>());
+
+        // what follows the comma is another option, even if it is named like a type
+        assertThrows(CmdLineException.class, () -> AgentMain.premain("noexit,types=files,sockets", instrumentation));
+    }
+
     @Test
     public void testPreMainHttpServerInvalidPort() throws Exception {
         final Set<String> seenClasses = new HashSet<>();
@@ -76,9 +141,127 @@ public class AgentMainTest {
         }
     }
 
+    @Test
+    public void testReattachReconfigures() throws Exception {
+        final Set<String> seenClasses = new HashSet<>();
+        final Instrumentation instrumentation = prepare(seenClasses);
+        int threshold = Listener.THRESHOLD;
+
+        AgentMain.premain(null, instrumentation);
+        try {
+            AgentMain.premain("threshold=5,sample=7", mock(Instrumentation.class));
+            assertEquals(5, Listener.THRESHOLD);
+            assertEquals(7, Listener.SAMPLE);
+            // and not the sample rate of the first attach, when it goes back to normal after a degradation
+            assertEquals(7, Overhead.getConfiguredSample());
+        } finally {
+            Listener.THRESHOLD = threshold;
+            Listener.SAMPLE = 1;
+        }
+
+        verifyInstrumentation(instrumentation, seenClasses);
+    }
+
+    @Test
+    public void testReattachWhileDegradedKeepsTheSample() throws Exception {
+        AgentMain.premain("sample=3,overhead=50%", prepare(new HashSet<>()));
+        Overhead.setLevel(Overhead.Level.SAMPLED, 60);
+        assertEquals(Overhead.DEGRADED_SAMPLE, Listener.SAMPLE);
+
+        AgentMain.premain("overhead=20%", mock(Instrumentation.class));
+        assertEquals(Overhead.DEGRADED_SAMPLE, Listener.SAMPLE);
+        Overhead.setLevel(Overhead.Level.NORMAL, 1);
+        // and not the degraded rate that was in effect when the budget changed
+        assertEquals(3, Listener.SAMPLE);
+    }
+
+    @Test
+    public void testDetach() throws Exception {
+        final Set<String> seenClasses = new HashSet<>();
+        final Instrumentation instrumentation = prepare(seenClasses);
+
+        AgentMain.premain(null, instrumentation);
+        verifyInstrumentation(instrumentation, seenClasses);
+
+        AgentMain.premain("detach", instrumentation);
+        verify(instrumentation).removeTransformer(any());
+        verify(instrumentation).retransformClasses(any(Class[].class));
+    }
+
+    @Test
+    public void testDetachForgetsTheOptions() throws Exception {
+        AgentMain.premain("threshold=5,sample=3,overhead=50%", prepare(new HashSet<>()));
+        ActivityListener.LIST.add(new ActivityListener() {});
+        AgentMain.detach();
+
+        assertEquals(999999, Listener.THRESHOLD);
+        assertEquals(1, Listener.SAMPLE);
+        assertEquals(0, Overhead.getBudgetPercent());
+        assertTrue(ActivityListener.LIST.isEmpty());
+        assertTrue(Listener.EXCLUDES.isEmpty());
+
+        // the default exclude isn't added once more
+        AgentMain.premain(null, prepare(new HashSet<>()));
+        assertEquals(Collections.singletonList(Listener.PIPE_LOOPBACK), Listener.EXCLUDES);
+    }
+
+    @Test
+    public void testOutOfDescriptorsDumpGoesToTheErrorFile(@TempDir Path dir) throws Exception {
+        Path error = dir.resolve("error.log");
+        AgentMain.premain("error=" + error, prepare(new HashSet<>()));
+        Object o = new Object();
+        Listener.open(o, Paths.get("out-of-descriptors.txt"));
+        try {
+            Listener.outOfDescriptors();
+
+            // the dump is written by another thread, and ends with the recent events
+            String dump = "";
+            for (long deadline = System.currentTimeMillis() + 10000;
+                    !dump.endsWith("----" + System.lineSeparator()) && System.currentTimeMillis() < deadline; ) {
+                Thread.sleep(10);
+                dump = new String(Files.readAllBytes(error), StandardCharsets.UTF_8);
+            }
+            assertTrue(dump.startsWith("Too many open files"), dump);
+            assertTrue(dump.contains("out-of-descriptors.txt by thread:"), dump);
+            assertTrue(dump.contains("open  PathRecord"), dump);
+        } finally {
+            Listener.close(o);
+        }
+    }
+
+    @Test
+    public void requestPath() {
+        assertEquals("/", AgentMain.getRequestPath(null));
+        assertEquals("/", AgentMain.getRequestPath("GET"));
+        assertEquals("/", AgentMain.getRequestPath("GET / HTTP/1.1"));
+        assertEquals("/events", AgentMain.getRequestPath("GET /events HTTP/1.1"));
+        assertEquals("/events", AgentMain.getRequestPath("GET /events?refresh=1 HTTP/1.0"));
+    }
+
+    @Test
+    public void dumpFormat() {
+        assertEquals(DumpFormat.TEXT, DumpFormat.parse(""));
+        assertEquals(DumpFormat.JSON, DumpFormat.parse("json"));
+        assertEquals(DumpFormat.GROUPED, DumpFormat.parse("GROUPED"));
+        assertThrows(IllegalArgumentException.class, () -> DumpFormat.parse("xml"));
+        assertEquals("null", DumpFormat.quote(null));
+        assertEquals("\"C:\\\\tmp\\t\\\"x\\\"\\u0001\"", DumpFormat.quote("C:\\tmp\t\"x\"\u0001"));
+    }
+
+    private static Set<String> names(List<ClassTransformSpec> specs) {
+        Set<String> names = new HashSet<>();
+        for (ClassTransformSpec spec : specs) {
+            names.add(spec.name);
+        }
+        return names;
+    }
+
     private static Instrumentation prepare(Set<String> seenClasses) throws UnmodifiableClassException {
-        final List<ClassTransformSpec> specs = AgentMain.createSpec();
+        return prepare(seenClasses, AgentMain.createSpec());
+    }
 
+    private static Instrumentation prepare(Set<String> seenClasses, List<ClassTransformSpec> specs)
+            throws UnmodifiableClassException {
         for (ClassTransformSpec spec : specs) {
             seenClasses.add(spec.name);
         }
@@ -115,5 +298,8 @@ public class AgentMainTest {
         seenClasses.remove("sun/nio/fs/UnixSecureDirectoryStream");
 
         assertTrue(seenClasses.isEmpty(), "Had classes in the spec which were not instrumented: " + seenClasses);
+
+        // detaching retransforms the classes again
+        reset(instrumentation);
     }
 }
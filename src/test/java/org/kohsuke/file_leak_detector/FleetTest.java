@@ -0,0 +1,65 @@
+package org.kohsuke.file_leak_detector;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+public class FleetTest {
+    @Test
+    public void site() {
+        assertEquals(
+                "app//com.example.Foo.open(Foo.java:12)",
+                Fleet.getSite(List.of(
+                        "java.base/java.io.FileInputStream.<init>(FileInputStream.java:159)",
+                        "app//com.example.Foo.open(Foo.java:12)",
+                        "app//com.example.Foo.main(Foo.java:5)")));
+        assertEquals(
+                "java.base/java.lang.Thread.run(Thread.java:1583)",
+                Fleet.getSite(List.of("java.base/java.lang.Thread.run(Thread.java:1583)")));
+        assertEquals("(unknown)", Fleet.getSite(List.of()));
+    }
+
+    @Test
+    public void readsJsonDump() {
+        StringWriter w = new StringWriter();
+        DumpFormat.JSON.write(new Listener.Record[0], new PrintWriter(w));
+        Map<?, ?> dump = (Map<?, ?>) Json.parse(w.toString());
+        assertEquals(0L, dump.get("open"));
+        assertEquals(List.of(), dump.get("descriptors"));
+
+        assertEquals(
+                Map.of("a", List.of("x\"\\\n\u0001", 1L, 2.5, true, false), "b", Map.of()),
+                Json.parse("{\"a\": [\"x\\\"\\\\\\n\\u0001\", 1, 2.5, true, false], \"b\": {}}"));
+    }
+
+    @Test
+    public void report() {
+        Fleet.Jvm leaking = new Fleet.Jvm("1", "com.example.Leaking");
+        leaking.dump = (Map<?, ?>) Json.parse("{\"open\":2,\"descriptors\":["
+                + "{\"type\":\"PathRecord\",\"stackTrace\":[\"app//com.example.Foo.open(Foo.java:12)\"]},"
+                + "{\"type\":\"PathRecord\",\"stackTrace\":[\"app//com.example.Foo.open(Foo.java:12)\"]}]}");
+        Fleet.Jvm other = new Fleet.Jvm("2", "com.example.Other");
+        other.dump = (Map<?, ?>) Json.parse("{\"open\":1,\"descriptors\":["
+                + "{\"type\":\"SocketRecord\",\"stackTrace\":[\"app//com.example.Foo.open(Foo.java:12)\"]}]}");
+        Fleet.Jvm plain = new Fleet.Jvm("3", "com.example.Plain");
+        plain.error = "File leak detector is not installed";
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Fleet.report(List.of(plain, other, leaking), 10, new PrintStream(out, true, StandardCharsets.UTF_8));
+        String report = out.toString(StandardCharsets.UTF_8);
+
+        assertTrue(report.contains("Dumped 2 of 3 JVMs"), report);
+        assertTrue(report.indexOf("com.example.Leaking") < report.indexOf("com.example.Other"), report);
+        assertTrue(report.contains("File leak detector is not installed"), report);
+        assertTrue(report.contains("       2  PathRecord"), report);
+        assertTrue(report.contains("       3  app//com.example.Foo.open(Foo.java:12) in 2 JVMs"), report);
+    }
+}
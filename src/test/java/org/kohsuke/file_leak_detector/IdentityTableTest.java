@@ -0,0 +1,59 @@
+package org.kohsuke.file_leak_detector;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+public class IdentityTableTest {
+    @Test
+    public void keysAreComparedByIdentity() {
+        IdentityTable<String> table = new IdentityTable<>(true);
+        List<Integer> a = new ArrayList<>();
+        List<Integer> b = new ArrayList<>();
+        assertEquals(a, b);
+
+        table.put(a, "a");
+        assertTrue(table.containsKey(a));
+        assertFalse(table.containsKey(b));
+        assertNull(table.remove(b));
+        // changing the key doesn't lose it, as its hashCode isn't used
+        a.add(1);
+        assertEquals("a", table.get(a));
+        assertEquals("a", table.remove(a));
+        assertTrue(table.isEmpty());
+    }
+
+    @Test
+    public void collectedKeysAreRemoved() throws InterruptedException {
+        IdentityTable<String> table = new IdentityTable<>(true);
+        Object kept = new Object();
+        table.put(kept, "kept");
+        table.put(new Object(), "collected");
+
+        for (int i = 0; i < 100 && table.size() > 1; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertEquals(1, table.size());
+        assertEquals("kept", table.get(kept));
+    }
+
+    @Test
+    public void strongTableKeepsKeys() throws InterruptedException {
+        IdentityTable<String> table = new IdentityTable<>(true);
+        Object kept = new Object();
+        table.put(kept, "kept");
+        table = table.toStrong();
+        table.put(new Object(), "unreachable");
+
+        System.gc();
+        Thread.sleep(10);
+        assertEquals(2, table.size());
+        assertEquals("kept", table.get(kept));
+    }
+}
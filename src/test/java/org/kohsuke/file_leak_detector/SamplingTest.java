@@ -0,0 +1,130 @@
+package org.kohsuke.file_leak_detector;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+public class SamplingTest {
+    @AfterEach
+    public void reset() {
+        Listener.SAMPLE = 1;
+        Listener.TRACE = null;
+        Listener.EXCLUDES.clear();
+        Site.clear();
+    }
+
+    @Test
+    public void tracedClosesAreNotOpens() {
+        Listener.SAMPLE = 2;
+        StringWriter trace = new StringWriter();
+        Listener.TRACE = new PrintWriter(trace);
+        for (int i = 0; i < 4; i++) {
+            Object o = new Object();
+            Listener.open(o, Paths.get("traced-" + i + ".txt"));
+            Listener.close(o);
+        }
+        // every close shows where it was closed, rather than where another close was
+        String[] lines = trace.toString().split("\\R");
+        for (int i = 0; i < lines.length - 1; i++) {
+            if (lines[i].startsWith("Closed ")) {
+                assertFalse(lines[i + 1].contains("sampled"), trace.toString());
+            }
+        }
+    }
+
+    @Test
+    public void defaultExcludeKeepsSampling() {
+        Listener.SAMPLE = 2;
+        Listener.EXCLUDES.add(Listener.PIPE_LOOPBACK);
+        Object[] objects = {new Object(), new Object(), new Object()};
+        for (int i = 0; i < objects.length; i++) {
+            includedCaller(objects[i], "default-" + i + ".txt");
+        }
+        try {
+            assertFalse(find("default-1.txt").isSampled());
+            assertTrue(find("default-2.txt").isSampled());
+        } finally {
+            for (Object o : objects) {
+                Listener.close(o);
+            }
+        }
+    }
+
+    @Test
+    public void excludesAreMatchedAgainstTheirOwnOpen() {
+        Listener.SAMPLE = 2;
+        Listener.EXCLUDES.add("SamplingTest.excludedCaller");
+        Object[] included = {new Object(), new Object()};
+        for (int i = 0; i < included.length; i++) {
+            includedCaller(included[i], "included-" + i + ".txt");
+        }
+        // the third open at the site would share the stack trace of the second
+        Object excluded = new Object();
+        excludedCaller(excluded, "excluded.txt");
+        try {
+            assertNotNull(find("included-1.txt"));
+            assertNull(find("excluded.txt"), "excluded open is tracked");
+        } finally {
+            for (Object o : included) {
+                Listener.close(o);
+            }
+            Listener.close(excluded);
+        }
+    }
+
+    @Test
+    public void overheadControlSkipsSamplingWithExcludes() {
+        Listener.EXCLUDES.add(Listener.PIPE_LOOPBACK);
+        assertEquals(Overhead.Level.SAMPLED, Overhead.step(Overhead.Level.NORMAL, 1));
+        assertEquals(Overhead.Level.SAMPLED, Overhead.step(Overhead.Level.NO_TRACE, -1));
+
+        Listener.EXCLUDES.add("SamplingTest.excludedCaller");
+        assertEquals(Overhead.Level.NO_TRACE, Overhead.step(Overhead.Level.NORMAL, 1));
+        assertEquals(Overhead.Level.NORMAL, Overhead.step(Overhead.Level.NO_TRACE, -1));
+        assertEquals(Overhead.Level.COUNT_ONLY, Overhead.step(Overhead.Level.NO_TRACE, 1));
+    }
+
+    private static void includedCaller(Object o, String file) {
+        openAtOneSite(o, file);
+    }
+
+    private static void excludedCaller(Object o, String file) {
+        openAtOneSite(o, file);
+    }
+
+    /**
+     * Opens at the same site whichever the caller, as a site is made of the two frames at the top.
+     */
+    private static void openAtOneSite(Object o, String file) {
+        open(o, file);
+    }
+
+    /**
+     * Calls the listener by reflection like the instrumented code does, whose frames the excludes are matched with.
+     */
+    private static void open(Object o, String file) {
+        try {
+            Listener.class.getMethod("open", Object.class, Path.class).invoke(null, o, Paths.get(file));
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static Listener.Record find(String file) {
+        for (Listener.Record r : Listener.getCurrentOpenFiles()) {
+            if (r instanceof Listener.PathRecord && ((Listener.PathRecord) r).path.equals(Paths.get(file))) {
+                return r;
+            }
+        }
+        return null;
+    }
+}
@@ -1,5 +1,7 @@
 package org.kohsuke.file_leak_detector;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -8,11 +10,17 @@ import java.io.InputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.MethodSource;
 import org.kohsuke.file_leak_detector.transform.ClassTransformSpec;
+import org.kohsuke.file_leak_detector.transform.TransformCache;
 import org.kohsuke.file_leak_detector.transform.TransformerImpl;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.util.CheckClassAdapter;
@@ -23,11 +31,24 @@ import org.objectweb.asm.util.CheckClassAdapter;
 public class TransformerTest {
     private static final List<ClassTransformSpec> specs = AgentMain.createSpec();
 
+    /**
+     * With {@code mode=fd}.
+     */
+    private static final List<ClassTransformSpec> descriptorSpecs = AgentMain.createSpec(true);
+
     @MethodSource("specs")
     @ParameterizedTest(name = "{index} - {0}")
     public void testInstrumentations(Class<?> c) throws Exception {
-        TransformerImpl t = new TransformerImpl(specs);
+        verifyInstrumentation(new TransformerImpl(specs), c);
+    }
+
+    @MethodSource("descriptorSpecs")
+    @ParameterizedTest(name = "{index} - {0}")
+    public void testDescriptorInstrumentations(Class<?> c) throws Exception {
+        verifyInstrumentation(new TransformerImpl(descriptorSpecs), c);
+    }
 
+    private void verifyInstrumentation(TransformerImpl t, Class<?> c) throws Exception {
         String name = c.getName().replace('.', '/');
         byte[] data;
         try (InputStream resource = getClass().getClassLoader().getResourceAsStream(name + ".class")) {
@@ -53,7 +74,42 @@ public class TransformerTest {
         assertTrue(errors.isEmpty(), "Verification failed for " + c + "\n" + errors);
     }
 
+    @Test
+    public void cachedTransformation(@TempDir Path dir) throws Exception {
+        String name = "java/io/FileInputStream";
+        byte[] data;
+        try (InputStream resource = getClass().getClassLoader().getResourceAsStream(name + ".class")) {
+            data = resource.readAllBytes();
+        }
+        byte[] transformed = new TransformerImpl(specs).transform(name, data);
+
+        TransformCache cache = new TransformCache(dir, "1.0");
+        assertArrayEquals(transformed, new TransformerImpl(specs, cache).transform(name, data));
+        assertEquals(1, countFiles(dir));
+        // read back from the cache by another JVM of the same agent
+        cache = new TransformCache(dir, "1.0");
+        assertArrayEquals(transformed, new TransformerImpl(specs, cache).transform(name, data));
+        assertEquals(1, countFiles(dir));
+        // but not by another version of the agent
+        new TransformerImpl(specs, new TransformCache(dir, "1.1")).transform(name, data);
+        assertEquals(2, countFiles(dir));
+    }
+
+    private static long countFiles(Path dir) throws Exception {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.count();
+        }
+    }
+
     public static List<Object[]> specs() throws Exception {
+        return classes(specs);
+    }
+
+    public static List<Object[]> descriptorSpecs() throws Exception {
+        return classes(descriptorSpecs);
+    }
+
+    private static List<Object[]> classes(List<ClassTransformSpec> specs) throws Exception {
         List<Object[]> r = new ArrayList<>();
         for (ClassTransformSpec s : specs) {
             Class<?> c = TransformerTest.class.getClassLoader().loadClass(s.name.replace('/', '.'));
@@ -0,0 +1,150 @@
+package org.kohsuke.file_leak_detector.instrumented;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.kohsuke.file_leak_detector.ActivityListener;
+import org.kohsuke.file_leak_detector.ActivityListener.Event;
+import org.kohsuke.file_leak_detector.Listener;
+
+/**
+ * Make sure to run this test with injected file-leak-detector as otherwise
+ * tests will fail.
+ */
+public class AsyncListenerDemo {
+    private Path tempFile;
+    private final List<ActivityListener> listeners = new ArrayList<>();
+
+    @BeforeEach
+    public void createFile() throws Exception {
+        assertTrue(
+                Listener.isAgentInstalled(),
+                "This test expects the Java Agent to be installed via command-line options");
+        tempFile = Files.createTempFile("file-leak-detector-AsyncListenerDemo", ".tmp");
+    }
+
+    @AfterEach
+    public void deleteFile() throws Exception {
+        ActivityListener.LIST.removeAll(listeners);
+        Files.deleteIfExists(tempFile);
+    }
+
+    @Test
+    public void eventsAreDeliveredOnAnotherThread() throws Exception {
+        BlockingQueue<Event> events = new LinkedBlockingQueue<>();
+        List<String> threads = new ArrayList<>();
+        add(new ActivityListener() {
+            @Override
+            public boolean isAsynchronous() {
+                return true;
+            }
+
+            @Override
+            public void onEvents(List<Event> batch) {
+                threads.add(Thread.currentThread().getName());
+                events.addAll(batch);
+            }
+        });
+
+        FileInputStream in = new FileInputStream(tempFile.toFile());
+        in.close();
+
+        Event open = next(events, in);
+        assertEquals(Event.Kind.FILE_OPEN, open.kind);
+        assertEquals(tempFile.toFile(), open.file);
+        assertEquals(Thread.currentThread().getName(), open.threadName);
+        assertEquals(Event.Kind.CLOSE, next(events, in).kind);
+        assertNotEquals(Thread.currentThread().getName(), threads.get(0));
+    }
+
+    @Test
+    public void callbacksAreCalledByDefault() throws Exception {
+        BlockingQueue<Object> opened = new LinkedBlockingQueue<>();
+        add(new ActivityListener() {
+            @Override
+            public boolean isAsynchronous() {
+                return true;
+            }
+
+            @Override
+            public void open(Object obj, File file) {
+                opened.add(obj);
+            }
+        });
+
+        FileInputStream in = new FileInputStream(tempFile.toFile());
+        in.close();
+        assertEquals(in, opened.poll(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void eventsBeyondTheCapacityAreDropped() throws Exception {
+        CountDownLatch delivering = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ActivityListener slow = add(new ActivityListener() {
+            @Override
+            public boolean isAsynchronous() {
+                return true;
+            }
+
+            @Override
+            public int getQueueCapacity() {
+                return 2;
+            }
+
+            @Override
+            public void onEvents(List<Event> batch) {
+                delivering.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        // the first open is taken by the listener, which then blocks
+        new FileInputStream(tempFile.toFile()).close();
+        assertTrue(delivering.await(10, TimeUnit.SECONDS));
+        long before = slow.getDroppedEvents();
+        for (int i = 0; i < 5; i++) {
+            // neither the opens nor the closes wait for the listener
+            new FileInputStream(tempFile.toFile()).close();
+        }
+        release.countDown();
+        // the close of the first file may or may not have been taken with its open
+        assertTrue(slow.getDroppedEvents() - before >= 8, "dropped " + slow.getDroppedEvents());
+    }
+
+    private ActivityListener add(ActivityListener l) {
+        listeners.add(l);
+        ActivityListener.LIST.add(l);
+        return l;
+    }
+
+    /**
+     * Returns the next event of the given object, skipping those of the files the JDK opened in the meantime.
+     */
+    private static Event next(BlockingQueue<Event> events, Object obj) throws InterruptedException {
+        while (true) {
+            Event e = events.poll(10, TimeUnit.SECONDS);
+            if (e == null || e.obj == obj) {
+                return e;
+            }
+        }
+    }
+}
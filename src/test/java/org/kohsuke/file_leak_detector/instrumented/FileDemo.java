@@ -20,6 +20,7 @@ import java.io.UncheckedIOException;
 import java.net.URI;
 import java.net.URL;
 import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
 import java.nio.channels.FileChannel;
 import java.nio.channels.SeekableByteChannel;
 import java.nio.charset.StandardCharsets;
@@ -182,6 +183,28 @@ public class FileDemo {
         assertThat(traceOutput, containsString("Closed " + tempFile));
     }
 
+    @Test
+    public void openCloseAsynchronousFileChannel() throws Exception {
+        try (AsynchronousFileChannel fileChannel =
+                AsynchronousFileChannel.open(tempFile.toPath(), StandardOpenOption.READ)) {
+            assertNotNull(fileChannel);
+            assertNotNull(
+                    findAsynchronousFileChannelRecord(tempFile.toPath()),
+                    "No asynchronous file channel record for file=" + tempFile + " found");
+            assertThat(
+                    "Did not have the expected type of 'marker' object: " + obj,
+                    obj,
+                    instanceOf(AsynchronousFileChannel.class));
+        }
+        assertNull(
+                findAsynchronousFileChannelRecord(tempFile.toPath()),
+                "Asynchronous file channel record for file=" + tempFile + " not removed");
+
+        String traceOutput = output.toString();
+        assertThat(traceOutput, containsString("Opened " + tempFile));
+        assertThat(traceOutput, containsString("Closed " + tempFile));
+    }
+
     @Test
     public void openCloseFilesNewByteChannel() throws Exception {
         // this triggers the following method
@@ -356,6 +379,18 @@ public class FileDemo {
         return null;
     }
 
+    private static Listener.AsynchronousFileChannelRecord findAsynchronousFileChannelRecord(Path path) {
+        for (Record record : Listener.getCurrentOpenFiles()) {
+            if (record instanceof Listener.AsynchronousFileChannelRecord) {
+                Listener.AsynchronousFileChannelRecord channelRecord = (Listener.AsynchronousFileChannelRecord) record;
+                if (channelRecord.path.getFileName().equals(path.getFileName())) {
+                    return channelRecord;
+                }
+            }
+        }
+        return null;
+    }
+
     private static void assertContainsAdjacentLines(String output, String thisLineContent, String nextLineContent) {
         List<String> lines = output.lines().collect(Collectors.toList());
         for (int i = 0; i < lines.size() - 1; ++i) {
@@ -0,0 +1,77 @@
+package org.kohsuke.file_leak_detector.instrumented;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.StringWriter;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.kohsuke.file_leak_detector.Listener;
+import org.kohsuke.file_leak_detector.Listener.MappingRecord;
+
+/**
+ * Make sure to run this test with injected file-leak-detector as otherwise
+ * tests will fail.
+ */
+public class MappingDemo {
+    private Path tempFile;
+
+    @BeforeEach
+    public void createFile() throws Exception {
+        assertTrue(
+                Listener.isAgentInstalled(),
+                "This test expects the Java Agent to be installed via command-line options");
+        tempFile = Files.write(Files.createTempFile("file-leak-detector-MappingDemo", ".tmp"), new byte[8192]);
+    }
+
+    @AfterEach
+    public void deleteFile() throws Exception {
+        Files.deleteIfExists(tempFile);
+    }
+
+    @Test
+    public void mappingOutlivesTheChannel() throws Exception {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, 4096);
+        }
+
+        MappingRecord r = findMapping();
+        assertNotNull(r, "No mapping of " + tempFile + " found, having: " + Listener.getCurrentMappings());
+        assertEquals(4096, r.size);
+        assertEquals(FileChannel.MapMode.READ_ONLY, r.mode);
+
+        StringWriter output = new StringWriter();
+        Listener.dumpMappings(output);
+        String mappings = output.toString();
+        assertTrue(mappings.contains("4096        1  " + tempFile), mappings);
+        // by file and by site
+        assertTrue(mappings.contains("4096        1  " + MappingDemo.class.getName() + ".mappingOutlivesTheChannel("), mappings);
+
+        // the region is unmapped once the buffer is collected
+        assertEquals(4096, buffer.capacity());
+        buffer = null;
+        for (int i = 0; i < 100 && findMapping() != null; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        assertNull(findMapping(), "Mapping not released after the buffer was collected");
+    }
+
+    private MappingRecord findMapping() {
+        for (MappingRecord r : Listener.getCurrentMappings()) {
+            if (tempFile.toString().equals(r.path)) {
+                return r;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,55 @@
+package org.kohsuke.file_leak_detector.instrumented;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.FileInputStream;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.regex.Pattern;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.kohsuke.file_leak_detector.Listener;
+
+/**
+ * Make sure to run this test with injected file-leak-detector as otherwise
+ * tests will fail.
+ */
+public class OwnerDemo {
+    private Path tempFile;
+
+    @BeforeEach
+    public void createFile() throws Exception {
+        assertTrue(
+                Listener.isAgentInstalled(),
+                "This test expects the Java Agent to be installed via command-line options");
+        tempFile = Files.createTempFile("file-leak-detector-OwnerDemo", ".tmp");
+    }
+
+    @AfterEach
+    public void deleteFile() throws Exception {
+        Files.deleteIfExists(tempFile);
+    }
+
+    @Test
+    public void openIsAttributedToTheCallersCodeSource() throws Exception {
+        String owner = OwnerDemo.class
+                .getProtectionDomain()
+                .getCodeSource()
+                .getLocation()
+                .toString();
+
+        try (FileInputStream in = new FileInputStream(tempFile.toFile())) {
+            StringWriter output = new StringWriter();
+            Listener.dumpOwners(output);
+            String owners = output.toString();
+            // the file is open, so its owner has at least one open and one opened descriptor
+            assertTrue(owners.matches("(?s).*\\s[1-9]\\d* +[1-9]\\d* +\\d+  " + Pattern.quote(owner) + "\\R.*"), owners);
+        }
+
+        StringWriter output = new StringWriter();
+        Listener.dump(output);
+        assertTrue(output.toString().contains("Descriptors by owner"), output.toString());
+    }
+}
@@ -0,0 +1,97 @@
+package org.kohsuke.file_leak_detector.instrumented;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
+
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.kohsuke.file_leak_detector.Listener;
+import org.kohsuke.file_leak_detector.Listener.ProcessRecord;
+
+/**
+ * Make sure to run this test with injected file-leak-detector as otherwise
+ * tests will fail.
+ */
+public class ProcessDemo {
+    @BeforeEach
+    public void setup() {
+        assertTrue(
+                Listener.isAgentInstalled(),
+                "This test expects the Java Agent to be installed via command-line options");
+        assumeFalse(System.getProperty("os.name").startsWith("Windows"), "Pipes are only tracked on Unix");
+    }
+
+    @Test
+    public void processIsTrackedUntilItsPipesAreClosed() throws Exception {
+        Process p = new ProcessBuilder("cat").start();
+
+        ProcessRecord r = findProcess(p);
+        assertNotNull(r, "No record of process " + p.pid() + " found, having: " + Listener.getCurrentOpenFiles());
+        assertEquals("cat", r.command);
+        assertEquals(3, r.pipes);
+        assertEquals(3, r.getOpenPipes());
+
+        StringWriter output = new StringWriter();
+        Listener.dump(output);
+        assertTrue(output.toString().contains("Process " + p.pid() + " (cat) with 3 of 3 pipes open"), output.toString());
+
+        // cat exits at the end of its input, and the JDK closes the other pipes once it has
+        p.getOutputStream().close();
+        assertEquals(0, p.waitFor());
+        awaitUntracked(p);
+    }
+
+    @Test
+    public void processThatExitsAtOnceIsNotTrackedAfterwards() throws Exception {
+        // the JDK may close the pipes of these before start() even returns
+        for (int i = 0; i < 20; i++) {
+            Process p = new ProcessBuilder("true").start();
+            assertEquals(0, p.waitFor());
+            awaitUntracked(p);
+        }
+    }
+
+    @Test
+    public void processWithRedirectedErrorStreamIsNotTrackedAfterwards() throws Exception {
+        Process p = new ProcessBuilder("sh", "-c", "echo hi").redirectErrorStream(true).start();
+        ProcessRecord r = findProcess(p);
+        if (r != null) {
+            // there is still a pipe for stderr, which the child doesn't write to
+            assertEquals(3, r.pipes);
+        }
+        assertEquals("hi\n", new String(p.getInputStream().readAllBytes(), StandardCharsets.UTF_8));
+        assertEquals(0, p.waitFor());
+        awaitUntracked(p);
+    }
+
+    @Test
+    public void processWithoutPipesIsNotTracked() throws Exception {
+        Process p = new ProcessBuilder("true").inheritIO().start();
+        assertNull(findProcess(p));
+        assertEquals(0, p.waitFor());
+    }
+
+    /**
+     * Waits for the JDK to close the pipes of a process that exited, which it does on another thread.
+     */
+    private static void awaitUntracked(Process p) throws InterruptedException {
+        for (int i = 0; i < 100 && findProcess(p) != null; i++) {
+            Thread.sleep(100);
+        }
+        assertNull(findProcess(p), "Process still tracked after all its pipes were closed");
+    }
+
+    private static ProcessRecord findProcess(Process p) {
+        for (Listener.Record r : Listener.getCurrentOpenFiles()) {
+            if (r instanceof ProcessRecord && ((ProcessRecord) r).pid == p.pid()) {
+                return (ProcessRecord) r;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,64 @@
+package org.kohsuke.file_leak_detector.instrumented;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.FileInputStream;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.kohsuke.file_leak_detector.Listener;
+
+/**
+ * Make sure to run this test with injected file-leak-detector as otherwise
+ * tests will fail.
+ */
+public class RecentEventsDemo {
+    private Path tempFile;
+
+    @BeforeEach
+    public void createFile() throws Exception {
+        assertTrue(
+                Listener.isAgentInstalled(),
+                "This test expects the Java Agent to be installed via command-line options");
+        tempFile = Files.createTempFile("file-leak-detector-RecentEventsDemo", ".tmp");
+    }
+
+    @AfterEach
+    public void deleteFile() throws Exception {
+        Files.deleteIfExists(tempFile);
+    }
+
+    @Test
+    public void openAndCloseAreRecorded() throws Exception {
+        String events;
+        try (FileInputStream in = new FileInputStream(tempFile.toFile())) {
+            events = recentEvents();
+            // the file is still open, so the dump shows where it was opened
+            assertTrue(events.contains("open  PathRecord"), events);
+            assertTrue(events.contains("by thread:" + Thread.currentThread().getName()), events);
+            assertTrue(
+                    events.contains("opened at " + RecentEventsDemo.class.getName() + ".openAndCloseAreRecorded"),
+                    events);
+        }
+
+        events = recentEvents();
+        // both events refer to the same record
+        Matcher open = Pattern.compile("open  PathRecord (#\\d+) ").matcher(events);
+        assertTrue(open.find(), events);
+        String id = open.group(1);
+        assertTrue(events.contains("close PathRecord " + id + " "), events);
+        assertFalse(events.contains(id + " is open"), events);
+    }
+
+    private static String recentEvents() {
+        StringWriter output = new StringWriter();
+        Listener.dumpRecentEvents(output);
+        return output.toString();
+    }
+}
@@ -1,16 +1,22 @@
 package org.kohsuke.file_leak_detector.instrumented;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.StringWriter;
 import java.io.UncheckedIOException;
+import java.net.DatagramSocket;
 import java.net.HttpURLConnection;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.URL;
+import java.nio.channels.AsynchronousServerSocketChannel;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.DatagramChannel;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
@@ -21,6 +27,8 @@ import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -94,6 +102,7 @@ public class SocketTest {
         for (SocketChannel ch : sockets) {
             ch.close();
         }
+        serverSocket.close();
 
         assertEquals(0, getSocketChannels());
         es.shutdownNow();
@@ -138,6 +147,84 @@ public class SocketTest {
         assertEquals(0, getSockets());
     }
 
+    @Test
+    public void testServerSocketChannelLeakDetection() throws IOException {
+        ServerSocketChannel serverSocket = ServerSocketChannel.open();
+        assertEquals(1, getRecords(Listener.ServerSocketChannelRecord.class));
+
+        serverSocket.bind(new InetSocketAddress("localhost", 0));
+        String dump = dump();
+        assertTrue(dump.contains("server socket channel at " + serverSocket.getLocalAddress()), dump);
+
+        serverSocket.close();
+        assertEquals(0, getRecords(Listener.ServerSocketChannelRecord.class));
+    }
+
+    @Test
+    public void testDatagramSocketLeakDetection() throws IOException {
+        DatagramSocket socket = new DatagramSocket(new InetSocketAddress("localhost", 0));
+        DatagramChannel channel = DatagramChannel.open();
+        channel.bind(new InetSocketAddress("localhost", 0));
+
+        // the socket delegates to a channel of its own
+        assertEquals(2, getRecords(Listener.DatagramChannelRecord.class));
+        String dump = dump();
+        assertTrue(dump.contains("datagram channel at " + socket.getLocalSocketAddress()), dump);
+        assertTrue(dump.contains("datagram channel at " + channel.getLocalAddress()), dump);
+
+        socket.close();
+        channel.close();
+        assertEquals(0, getRecords(Listener.DatagramChannelRecord.class));
+    }
+
+    @Test
+    public void testAsynchronousSocketChannelLeakDetection() throws Exception {
+        assertEquals(0, getAsynchronousSocketChannels());
+
+        AsynchronousServerSocketChannel serverSocket =
+                AsynchronousServerSocketChannel.open().bind(new InetSocketAddress("localhost", 0));
+        Future<AsynchronousSocketChannel> accepted = serverSocket.accept();
+        AsynchronousSocketChannel socketChannel = AsynchronousSocketChannel.open();
+        socketChannel.connect(serverSocket.getLocalAddress()).get(10, TimeUnit.SECONDS);
+        AsynchronousSocketChannel acceptedChannel = accepted.get(10, TimeUnit.SECONDS);
+
+        // the server, the connecting and the accepted channel
+        assertEquals(3, getAsynchronousSocketChannels());
+
+        socketChannel.close();
+        acceptedChannel.close();
+        serverSocket.close();
+
+        assertEquals(0, getAsynchronousSocketChannels());
+    }
+
+    private int getRecords(Class<? extends Listener.Record> type) {
+        int records = 0;
+        for (Listener.Record record : Listener.getCurrentOpenFiles()) {
+            if (type.isInstance(record)) {
+                records++;
+            }
+        }
+        return records;
+    }
+
+    private static String dump() {
+        StringWriter output = new StringWriter();
+        Listener.dump(output);
+        return output.toString();
+    }
+
+    private int getAsynchronousSocketChannels() {
+        int socketChannels = 0;
+        for (Listener.Record record : Listener.getCurrentOpenFiles()) {
+            if (record instanceof Listener.AsynchronousSocketChannelRecord
+                    || record instanceof Listener.AsynchronousServerSocketChannelRecord) {
+                socketChannels++;
+            }
+        }
+        return socketChannels;
+    }
+
     private int getSocketChannels() {
         int socketChannels = 0;
         for (Listener.Record record : Listener.getCurrentOpenFiles()) {
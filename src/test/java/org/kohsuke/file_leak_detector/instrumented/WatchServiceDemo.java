@@ -0,0 +1,70 @@
+package org.kohsuke.file_leak_detector.instrumented;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.kohsuke.file_leak_detector.Listener;
+import org.kohsuke.file_leak_detector.Listener.WatchServiceRecord;
+
+/**
+ * Make sure to run this test with injected file-leak-detector as otherwise
+ * tests will fail.
+ */
+public class WatchServiceDemo {
+    private Path dir1;
+    private Path dir2;
+
+    @BeforeEach
+    public void createDirectories() throws Exception {
+        assertTrue(
+                Listener.isAgentInstalled(),
+                "This test expects the Java Agent to be installed via command-line options");
+        dir1 = Files.createTempDirectory("file-leak-detector-WatchServiceDemo");
+        dir2 = Files.createTempDirectory("file-leak-detector-WatchServiceDemo");
+    }
+
+    @AfterEach
+    public void deleteDirectories() throws Exception {
+        Files.deleteIfExists(dir1);
+        Files.deleteIfExists(dir2);
+    }
+
+    @Test
+    public void openCloseWatchService() throws Exception {
+        WatchService watchService = FileSystems.getDefault().newWatchService();
+        WatchServiceRecord r = findRecord();
+        assertNotNull(r, "No watch service record found, having: " + Listener.getCurrentOpenFiles());
+        assertEquals(0, r.getRegisteredKeys());
+
+        WatchKey key = dir1.register(watchService, StandardWatchEventKinds.ENTRY_CREATE);
+        dir2.register(watchService, StandardWatchEventKinds.ENTRY_CREATE);
+        assertEquals(2, r.getRegisteredKeys());
+
+        // a cancelled key no longer watches its directory
+        key.cancel();
+        assertEquals(1, r.getRegisteredKeys());
+
+        watchService.close();
+        assertNull(findRecord(), "Watch service record not removed");
+    }
+
+    private static WatchServiceRecord findRecord() {
+        for (Listener.Record r : Listener.getCurrentOpenFiles()) {
+            if (r instanceof WatchServiceRecord) {
+                return (WatchServiceRecord) r;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,126 @@
+package org.kohsuke.file_leak_detector.instrumented.fd;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
+
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.InaccessibleObjectException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.kohsuke.file_leak_detector.Listener;
+import org.kohsuke.file_leak_detector.Listener.PathRecord;
+import org.kohsuke.file_leak_detector.Listener.ProcessRecord;
+
+/**
+ * Make sure to run this test with injected file-leak-detector with {@code mode=fd} as otherwise
+ * tests will fail.
+ */
+public class DescriptorModeDemo {
+    private Path tempFile;
+
+    @BeforeEach
+    public void createFile() throws Exception {
+        assertTrue(
+                Listener.isAgentInstalled(),
+                "This test expects the Java Agent to be installed via command-line options");
+        tempFile = Files.write(Files.createTempFile("file-leak-detector-DescriptorModeDemo", ".tmp"), new byte[16]);
+    }
+
+    @AfterEach
+    public void deleteFile() throws Exception {
+        Files.deleteIfExists(tempFile);
+    }
+
+    @Test
+    public void streamAndItsChannelShareOneRecord() throws Exception {
+        try (FileInputStream in = new FileInputStream(tempFile.toFile())) {
+            FileChannel channel = in.getChannel();
+            assertEquals(16, channel.size());
+            assertEquals(1, countRecords(tempFile));
+        }
+        assertEquals(0, countRecords(tempFile));
+    }
+
+    @Test
+    public void everyDescriptorIsTracked() throws Exception {
+        try (RandomAccessFile raf = new RandomAccessFile(tempFile.toFile(), "r");
+                FileChannel channel = FileChannel.open(tempFile)) {
+            assertEquals(2, countRecords(tempFile));
+            assertEquals(raf.length(), channel.size());
+        }
+        assertEquals(0, countRecords(tempFile));
+    }
+
+    @Test
+    public void zipFileIsTrackedByItsDescriptor() throws Exception {
+        Path zip = Files.createTempFile("file-leak-detector-DescriptorModeDemo", ".zip");
+        try {
+            try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(zip))) {
+                out.putNextEntry(new ZipEntry("entry"));
+            }
+            try (ZipFile zipFile = new ZipFile(zip.toFile())) {
+                assertEquals(1, zipFile.size());
+                assertEquals(1, countRecords(zip));
+            }
+            assertEquals(0, countRecords(zip));
+        } finally {
+            Files.delete(zip);
+        }
+    }
+
+    @Test
+    public void processIsTrackedUntilItsPipesAreClosed() throws Exception {
+        assumeFalse(System.getProperty("os.name").startsWith("Windows"), "Pipes are only tracked on Unix");
+        Process p = new ProcessBuilder("cat").start();
+        assertEquals(3, findProcess(p).getOpenPipes());
+
+        // the pipes are closed through their descriptors, by the JDK once cat has exited
+        p.getOutputStream().close();
+        assertEquals(0, p.waitFor());
+        for (int i = 0; i < 100 && findProcess(p) != null; i++) {
+            Thread.sleep(100);
+        }
+        assertNull(findProcess(p), "Process still tracked after all its pipes were closed");
+    }
+
+    @Test
+    public void packagesAreNotOpenedToTheClassPath() throws Exception {
+        // the agent is on the class path like this test, yet only its own module may look into java.io
+        assertFalse(FileDescriptor.class.getModule().isOpen("java.io", DescriptorModeDemo.class.getModule()));
+        assertThrows(
+                InaccessibleObjectException.class,
+                () -> FileDescriptor.class.getDeclaredField("parent").setAccessible(true));
+    }
+
+    private static ProcessRecord findProcess(Process p) {
+        for (Listener.Record r : Listener.getCurrentOpenFiles()) {
+            if (r instanceof ProcessRecord && ((ProcessRecord) r).pid == p.pid()) {
+                return (ProcessRecord) r;
+            }
+        }
+        return null;
+    }
+
+    private static int countRecords(Path file) {
+        int n = 0;
+        for (Listener.Record r : Listener.getCurrentOpenFiles()) {
+            if (r instanceof PathRecord && ((PathRecord) r).path.equals(file)) {
+                n++;
+            }
+        }
+        return n;
+    }
+}
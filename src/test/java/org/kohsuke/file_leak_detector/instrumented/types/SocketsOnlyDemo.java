@@ -0,0 +1,91 @@
+package org.kohsuke.file_leak_detector.instrumented.types;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.FileInputStream;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.kohsuke.file_leak_detector.Listener;
+import org.kohsuke.file_leak_detector.Listener.DatagramChannelRecord;
+import org.kohsuke.file_leak_detector.Listener.PathRecord;
+import org.kohsuke.file_leak_detector.Listener.ServerSocketChannelRecord;
+import org.kohsuke.file_leak_detector.Listener.SocketChannelRecord;
+
+/**
+ * Make sure to run this test with injected file-leak-detector with {@code types=sockets} as otherwise
+ * tests will fail.
+ */
+public class SocketsOnlyDemo {
+    @BeforeEach
+    public void checkAgent() {
+        assertTrue(
+                Listener.isAgentInstalled(),
+                "This test expects the Java Agent to be installed via command-line options");
+    }
+
+    @Test
+    public void closedChannelsAreNotTracked() throws Exception {
+        int before = countRecords();
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            try (SocketChannel client = SocketChannel.open(server.getLocalAddress());
+                    SocketChannel accepted = server.accept()) {
+                assertTrue(client.isConnected());
+                assertTrue(accepted.isConnected());
+                assertEquals(before + 3, countRecords());
+            }
+            assertEquals(before + 1, countRecords());
+        }
+        assertEquals(before, countRecords());
+    }
+
+    @Test
+    public void closedDatagramsAreNotTracked() throws Exception {
+        int before = countRecords();
+        try (DatagramChannel channel = DatagramChannel.open();
+                DatagramSocket socket = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            channel.bind(null);
+            assertTrue(socket.isBound());
+            assertEquals(before + 2, countRecords());
+        }
+        assertEquals(before, countRecords());
+    }
+
+    @Test
+    public void filesAreNotTracked() throws Exception {
+        Path tempFile = Files.createTempFile("file-leak-detector-SocketsOnlyDemo", ".tmp");
+        int before = Listener.getCurrentOpenFiles().size();
+        try (FileInputStream in = new FileInputStream(tempFile.toFile());
+                FileChannel channel = FileChannel.open(tempFile)) {
+            for (Listener.Record r : Listener.getCurrentOpenFiles()) {
+                assertFalse(r instanceof PathRecord && ((PathRecord) r).path.equals(tempFile), "Tracked " + r);
+            }
+            assertEquals(before, Listener.getCurrentOpenFiles().size());
+        } finally {
+            Files.delete(tempFile);
+        }
+    }
+
+    private static int countRecords() {
+        int n = 0;
+        for (Listener.Record r : Listener.getCurrentOpenFiles()) {
+            if (r instanceof SocketChannelRecord
+                    || r instanceof ServerSocketChannelRecord
+                    || r instanceof DatagramChannelRecord) {
+                n++;
+            }
+        }
+        return n;
+    }
+}